@@ -0,0 +1,179 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a launcher's input through its RowOperations.
+ * The input is parsed once on the caller's thread, cut into batches of
+ * batchSize rows that commit together and windows of windowSize rows
+ * that are prefetched together, and applied one of three ways:
+ * inline on the launcher's context, on one worker thread per partition
+ * with rows partitioned by key, or pipelined with a prefetch stage
+ * loading the next window while a single writer commits the current one.
+ * Inline and pipelined runs are checkpointed after every batch, and
+ * every run marks its checkpoint complete once all rows are in; the
+ * queues between threads are bounded, so a slow writer holds back the
+ * parsing.
+ */
+public class BatchRunner<R extends LauncherRow, P> {
+    // windows each thread may run ahead of the next
+    private static final int QUEUE_DEPTH = 2;
+    private final RowOperationFactory<R, P> factory;
+    private final RollbackWriter rollback;
+    private final LauncherMetrics metrics;
+    private final ItemIdSet modified;
+    private final Checkpoint checkpoint;
+    private final int batchSize;
+    private final int windowSize;
+    private final int threads;
+    private final boolean pipeline;
+
+    // checkpoint may be null; only inline and pipelined runs, which have a single writer, save it after each batch
+    public BatchRunner(RowOperationFactory<R, P> factory, RollbackWriter rollback, LauncherMetrics metrics, ItemIdSet modified,
+                       Checkpoint checkpoint, int batchSize, int windowSize, int threads, boolean pipeline) {
+        if (pipeline && threads > 1){
+            throw new IllegalArgumentException("A pipelined run has a single writer and cannot be combined with threads");
+        }
+        this.factory = factory;
+        this.rollback = rollback;
+        this.metrics = metrics;
+        this.modified = modified;
+        this.checkpoint = checkpoint;
+        this.batchSize = batchSize;
+        this.windowSize = windowSize;
+        this.threads = threads;
+        this.pipeline = pipeline;
+    }
+
+    public void run(CsvInput input) throws Exception {
+        List<Partition> partitions = new ArrayList<Partition>(threads);
+        // threads in the order they are joined; a stage is joined before the stage it feeds
+        List<Thread> stageThreads = new ArrayList<Thread>();
+        PrefetchStage<R, P> prefetch = null;
+        RowOperation<R, P> inline = null;
+        if (pipeline){
+            BatchWorker<R, P> writer = new BatchWorker<R, P>(factory.createWithOwnContext(), rollback, metrics, modified, checkpoint, QUEUE_DEPTH);
+            prefetch = new PrefetchStage<R, P>(factory.createWithOwnContext(), writer, metrics, QUEUE_DEPTH);
+            partitions.add(new Partition(writer, prefetch));
+            stageThreads.add(new Thread(prefetch, "launcher-prefetch"));
+            stageThreads.add(new Thread(writer, "launcher-writer"));
+        } else if (threads == 1){
+            inline = factory.create();
+            partitions.add(new Partition(new BatchWorker<R, P>(inline, rollback, metrics, modified, checkpoint), null));
+        } else {
+            for (int i = 0; i < threads; i++){
+                BatchWorker<R, P> worker = new BatchWorker<R, P>(factory.createWithOwnContext(), rollback, metrics, modified, null, QUEUE_DEPTH);
+                partitions.add(new Partition(worker, null));
+                stageThreads.add(new Thread(worker, "launcher-worker-" + i));
+            }
+        }
+        for (Thread stageThread : stageThreads){
+            stageThread.start();
+        }
+        boolean finished = false;
+        try {
+            for (CSVRecord record : input)
+            {
+                // each record is parsed once here; the operations only see the parsed row
+                R row = factory.parse(record, input);
+                metrics.setInputPosition(input.getBytePosition());
+                // all rows with a key go to the same worker, which keeps their order
+                partitions.get(threads == 1 ? 0 : partitionOf(row)).add(row);
+            }
+            for (Partition partition : partitions){
+                partition.finish();
+            }
+            finished = true;
+        } finally {
+            for (Thread stageThread : stageThreads){
+                if (!finished){
+                    // workers waiting for input would otherwise never end
+                    stageThread.interrupt();
+                }
+                stageThread.join();
+                if (prefetch != null && prefetch.hasFailed()){
+                    // the writer never gets the end of input from a failed prefetch stage
+                    finished = false;
+                }
+            }
+            if (inline != null){
+                inline.close(finished);
+            }
+        }
+        if (prefetch != null){
+            prefetch.checkFailure();
+        }
+        for (Partition partition : partitions){
+            partition.worker.checkFailure();
+        }
+        // a threaded run can't be resumed, but a queue resuming its jobs must still skip it once it has finished
+        if (checkpoint != null){
+            checkpoint.markComplete();
+        }
+    }
+
+    private int partitionOf(R row){
+        int key = factory.partitionKey(row);
+        // rows without a key are spread by position
+        return (int) ((key < 0 ? row.getRecordNumber() : key) % threads);
+    }
+
+    // groups one worker's rows into batches and prefetch windows
+    private class Partition {
+        private final BatchWorker<R, P> worker;
+        // set on a pipelined run, where windows pass through the prefetch stage on their way to the worker
+        private final PrefetchStage<R, P> prefetch;
+        private List<List<R>> window = new ArrayList<List<R>>();
+        private int windowRows = 0;
+        private List<R> batch = new ArrayList<R>(batchSize);
+        private int lastKey = -1;
+
+        private Partition(BatchWorker<R, P> worker, PrefetchStage<R, P> prefetch) {
+            this.worker = worker;
+            this.prefetch = prefetch;
+        }
+
+        private void add(R row) throws Exception {
+            int key = factory.partitionKey(row);
+            // a full batch is only cut between keys so all rows with a key share one commit
+            if (batch.size() >= batchSize && (key < 0 || key != lastKey)){
+                window.add(batch);
+                windowRows += batch.size();
+                batch = new ArrayList<R>(batchSize);
+                if (windowRows >= windowSize){
+                    submitWindow();
+                }
+            }
+            batch.add(row);
+            lastKey = key;
+        }
+
+        private void finish() throws Exception {
+            if (!batch.isEmpty()){
+                window.add(batch);
+            }
+            if (!window.isEmpty()){
+                submitWindow();
+            }
+            if (prefetch != null){
+                // passed on to the worker once the prefetch stage has drained
+                prefetch.finish();
+            } else {
+                worker.finish();
+            }
+        }
+
+        private void submitWindow() throws Exception {
+            if (prefetch != null){
+                prefetch.submit(window);
+            } else {
+                worker.submit(window);
+            }
+            window = new ArrayList<List<R>>();
+            windowRows = 0;
+        }
+    }
+}
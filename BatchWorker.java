@@ -0,0 +1,212 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.dspace.authorize.AuthorizeException;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies windows of batches through one RowOperation for BatchRunner.
+ * Runs inline on the caller's thread, or on a thread of its own fed
+ * through a bounded queue.
+ */
+class BatchWorker<R extends LauncherRow, P> implements Runnable {
+    static final String WORKER_QUEUE = "worker_queue";
+    private final RowOperation<R, P> operation;
+    private final RollbackWriter rollback;
+    private final LauncherMetrics metrics;
+    // items with committed changes, re-indexed after the run
+    private final ItemIdSet modified;
+    private final PendingChanges pending = new PendingChanges();
+    // row outcomes of the open batch, counted once it commits
+    private final List<String> pendingOutcomes = new ArrayList<String>();
+    // only set for threaded workers
+    private final BlockingQueue<Window<R, P>> queue;
+    // only set for workers of a checkpointed run
+    private final Checkpoint checkpoint;
+    private volatile Exception failure;
+
+    // an inline worker, running on the caller's thread
+    BatchWorker(RowOperation<R, P> operation, RollbackWriter rollback, LauncherMetrics metrics, ItemIdSet modified, Checkpoint checkpoint) {
+        this(operation, rollback, metrics, modified, checkpoint, null);
+    }
+
+    // a threaded worker, fed through submit
+    BatchWorker(RowOperation<R, P> operation, RollbackWriter rollback, LauncherMetrics metrics, ItemIdSet modified, Checkpoint checkpoint, int queueCapacity) {
+        this(operation, rollback, metrics, modified, checkpoint, new ArrayBlockingQueue<Window<R, P>>(queueCapacity));
+    }
+
+    private BatchWorker(RowOperation<R, P> operation, RollbackWriter rollback, LauncherMetrics metrics, ItemIdSet modified, Checkpoint checkpoint,
+                        BlockingQueue<Window<R, P>> queue) {
+        this.operation = operation;
+        this.rollback = rollback;
+        this.metrics = metrics;
+        this.modified = modified;
+        this.checkpoint = checkpoint;
+        this.queue = queue;
+    }
+
+    // hands a window to the worker, which prefetches for it itself
+    void submit(List<List<R>> batches) throws Exception {
+        submit(new Window<R, P>(batches, null));
+    }
+
+    // hands a window a prefetch stage has already loaded
+    void submitPrefetched(List<List<R>> batches, P prefetched) throws Exception {
+        submit(new Window<R, P>(batches, prefetched));
+    }
+
+    // blocks while the worker's queue is full
+    private void submit(Window<R, P> window) throws Exception {
+        if (queue == null){
+            processWindow(window);
+            return;
+        }
+        while (!queue.offer(window, 1, TimeUnit.SECONDS)){
+            checkFailure();
+        }
+        metrics.recordQueueDepth(WORKER_QUEUE, queue.size());
+    }
+
+    void finish() throws Exception {
+        if (queue != null){
+            submit(new Window<R, P>(null, null));
+        }
+    }
+
+    void checkFailure() throws Exception {
+        if (failure != null){
+            throw failure;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Window<R, P> window = queue.take();
+            while (window.batches != null){
+                processWindow(window);
+                window = queue.take();
+            }
+            operation.close(true);
+        } catch (Exception e) {
+            failure = e;
+            try {
+                operation.close(false);
+            } catch (Exception closeError) {
+                System.out.println("Could not close worker context: " + closeError);
+            }
+        }
+    }
+
+    private void processWindow(Window<R, P> window) throws Exception {
+        P prefetched = window.prefetched;
+        if (prefetched == null){
+            prefetched = operation.prefetch(window.batches);
+        }
+        for (List<R> batch : window.batches){
+            processBatch(batch, prefetched);
+        }
+    }
+
+    private void processBatch(List<R> batch, P prefetched) throws Exception {
+        applyOrRetry(batch, prefetched);
+        if (checkpoint != null){
+            R last = batch.get(batch.size() - 1);
+            checkpoint.save(last.getRecordNumber(), last.getCharacterPosition());
+        }
+    }
+
+    // applies a batch in one transaction; a failed batch is rolled back and retried row by row, unless the operation can't roll back
+    private void applyOrRetry(List<R> batch, P prefetched) throws Exception {
+        try {
+            applyBatch(batch, prefetched);
+        } catch (SQLException | AuthorizeException | RuntimeException e) {
+            if (!operation.isTransactional()){
+                // what was applied before the failure has been committed by DSpace already
+                modified.addAll(pending.getItemIds());
+                throw e;
+            }
+            rollbackBatch();
+            if (batch.size() == 1){
+                throw e;
+            }
+            System.out.printf("Batch of %d rows failed (%s), retrying row by row\n", batch.size(), e);
+            for (R row : batch){
+                try {
+                    applyBatch(Collections.singletonList(row), prefetched);
+                } catch (SQLException | AuthorizeException | RuntimeException rowError) {
+                    rollbackBatch();
+                    metrics.increment(LauncherMetrics.FAILED);
+                    metrics.increment(LauncherMetrics.ROWS);
+                    System.out.printf("Skipping row %d: %s\n", row.getRecordNumber(), rowError);
+                }
+            }
+        }
+    }
+
+    private void applyBatch(List<R> batch, P prefetched) throws Exception {
+        for (R row : batch){
+            String outcome = operation.apply(row, prefetched, pending);
+            if (outcome != null){
+                pendingOutcomes.add(outcome);
+            }
+        }
+        commitBatch(batch.get(batch.size() - 1));
+        metrics.add(LauncherMetrics.ROWS, batch.size());
+    }
+
+    // the rollback rows are durable before the changes they undo are committed, and dropped or voided if the commit fails
+    private void commitBatch(final R last) throws Exception {
+        final long start = System.nanoTime();
+        final long[] commitStart = new long[1];
+        RollbackWriter.Commit commit = new RollbackWriter.Commit() {
+            @Override
+            public void run() throws Exception {
+                commitStart[0] = System.nanoTime();
+                metrics.record(LauncherMetrics.ROLLBACK_WRITE, start);
+                if (checkpoint != null){
+                    checkpoint.begin(last.getRecordNumber(), last.getCharacterPosition(), pending.getProbe());
+                }
+                operation.commit(pending.getItemIds());
+            }
+        };
+        if (operation.isTransactional()){
+            rollback.commit(pending.getRollbackRows(), commit);
+        } else {
+            // part of a failed batch may have reached DSpace, so its rows are kept; the mapper's undo of an unchanged item does nothing
+            rollback.write(pending.getRollbackRows());
+            rollback.sync();
+            commit.run();
+        }
+        metrics.record(LauncherMetrics.COMMIT, commitStart[0]);
+        modified.addAll(pending.getItemIds());
+        for (String outcome : pendingOutcomes){
+            metrics.increment(outcome);
+        }
+        pending.clear();
+        pendingOutcomes.clear();
+    }
+
+    private void rollbackBatch() throws Exception {
+        operation.rollback();
+        pending.clear();
+        pendingOutcomes.clear();
+    }
+
+    // a window of batches, with what a prefetch stage loaded for it if there was one; no batches marks the end of input
+    private static class Window<R, P> {
+        private final List<List<R>> batches;
+        private final P prefetched;
+
+        private Window(List<List<R>> batches, P prefetched) {
+            this.batches = batches;
+            this.prefetched = prefetched;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress marker of a launcher run, stored next to its rollback file.
+ * Records the last committed input row, where that row starts in the
+ * input, and how long the rollback file was at that commit, so an
+ * interrupted run can be resumed with --resume. Before a batch commits
+ * its last row is recorded as pending, with a probe from its operation,
+ * so a resumed run can tell whether a batch interrupted between its
+ * commit and its checkpoint made it.
+ */
+public class Checkpoint {
+    private final File file;
+    private final File rollbackFile;
+    private long recordNumber = 0;
+    private long characterPosition = -1;
+    private long rollbackSize = 0;
+    private boolean complete = false;
+    // -1 unless a batch was interrupted between its rollback sync and its checkpoint
+    private long pendingRecordNumber = -1;
+    private long pendingCharacterPosition = -1;
+    private long pendingRollbackSize = 0;
+    private String pendingProbe = "";
+
+    public Checkpoint(String rollbackFileName) {
+        this.file = new File(rollbackFileName + ".checkpoint");
+        this.rollbackFile = new File(rollbackFileName);
+    }
+
+    // reads the checkpoint, returns false if there is none
+    public boolean load() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        recordNumber = Long.parseLong(properties.getProperty("record_number"));
+        characterPosition = Long.parseLong(properties.getProperty("character_position"));
+        rollbackSize = Long.parseLong(properties.getProperty("rollback_size"));
+        complete = Boolean.parseBoolean(properties.getProperty("complete"));
+        pendingRecordNumber = Long.parseLong(properties.getProperty("pending_record_number", "-1"));
+        pendingCharacterPosition = Long.parseLong(properties.getProperty("pending_character_position", "-1"));
+        pendingRollbackSize = Long.parseLong(properties.getProperty("pending_rollback_size", "0"));
+        pendingProbe = properties.getProperty("pending_probe", "");
+        return true;
+    }
+
+    // called once a batch's rollback rows have been synced, right before it commits, with its last row
+    public void begin(long recordNumber, long characterPosition, String probe) throws IOException {
+        pendingRecordNumber = recordNumber;
+        pendingCharacterPosition = characterPosition;
+        pendingRollbackSize = rollbackFile.length();
+        pendingProbe = probe;
+        write();
+    }
+
+    // called after a commit, once its rollback rows have been synced, with the last committed row
+    public void save(long recordNumber, long characterPosition) throws IOException {
+        this.recordNumber = recordNumber;
+        this.characterPosition = characterPosition;
+        this.rollbackSize = rollbackFile.length();
+        pendingRecordNumber = -1;
+        pendingProbe = "";
+        write();
+    }
+
+    public boolean hasPendingBatch() {
+        return pendingRecordNumber >= 0;
+    }
+
+    public String getPendingProbe() {
+        return pendingProbe;
+    }
+
+    /**
+     * Settles the batch a resumed run found pending. A committed batch
+     * becomes the checkpoint; one that didn't commit is dropped with its
+     * rollback rows. When it can't be told (null) the rows are kept and
+     * the batch is applied again, for operations where that is harmless.
+     */
+    public void resolvePendingBatch(Boolean committed) throws IOException {
+        if (committed == null || committed) {
+            rollbackSize = pendingRollbackSize;
+        }
+        if (committed != null && committed) {
+            recordNumber = pendingRecordNumber;
+            characterPosition = pendingCharacterPosition;
+        }
+        pendingRecordNumber = -1;
+        pendingProbe = "";
+        write();
+    }
+
+    // a new run starts without the checkpoint of an earlier one
+    public void delete() {
+        file.delete();
+    }
+
+
+    public void markComplete() throws IOException {
+        complete = true;
+        write();
+    }
+
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public long getCharacterPosition() {
+        return characterPosition;
+    }
+
+    public long getRollbackSize() {
+        return rollbackSize;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // written to a temporary file and moved into place, so a crash never leaves a partial checkpoint
+    private void write() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("record_number", String.valueOf(recordNumber));
+        properties.setProperty("character_position", String.valueOf(characterPosition));
+        properties.setProperty("rollback_size", String.valueOf(rollbackSize));
+        properties.setProperty("complete", String.valueOf(complete));
+        properties.setProperty("pending_record_number", String.valueOf(pendingRecordNumber));
+        properties.setProperty("pending_character_position", String.valueOf(pendingCharacterPosition));
+        properties.setProperty("pending_rollback_size", String.valueOf(pendingRollbackSize));
+        properties.setProperty("pending_probe", pendingProbe);
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
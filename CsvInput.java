@@ -0,0 +1,190 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Header csv input for the launchers that can start at a checkpoint.
+ * Resuming skips straight to the checkpointed row's character position
+ * instead of parsing the rows before it. Record numbers and positions
+ * are reported relative to the start of the file either way.
+ *
+ * Files ending in .gz or .zst are decompressed as they are read (.zst
+ * needs zstd-jni on the classpath); other files are read through
+ * memory mapped regions. An uncompressed UTF-8 file can also be split
+ * into inputs over byte ranges of whole records, to be parsed in
+ * parallel.
+ */
+public class CsvInput implements Iterable<CSVRecord> {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final CSVParser parser;
+    private final Map<String, Integer> headerMap;
+    private final long basePosition;
+    private final long baseRecordNumber;
+    // null for compressed input, which has no byte offset in the file to report
+    private final MappedFileReader mapped;
+
+    private CsvInput(CSVParser parser, Map<String, Integer> headerMap, long basePosition, long baseRecordNumber,
+                     Reader reader) {
+        this.parser = parser;
+        this.headerMap = headerMap;
+        this.basePosition = basePosition;
+        this.baseRecordNumber = baseRecordNumber;
+        this.mapped = reader instanceof MappedFileReader ? (MappedFileReader) reader : null;
+    }
+
+    public static CsvInput open(String fileName, Charset charset) throws IOException {
+        Reader reader = openReader(fileName, charset);
+        CSVParser parser = CSVFormat.DEFAULT.withHeader().parse(reader);
+        return new CsvInput(parser, parser.getHeaderMap(), 0, 0, reader);
+    }
+
+    // opens the input after the last row committed according to the checkpoint
+    public static CsvInput resume(String fileName, Charset charset, Checkpoint checkpoint) throws IOException {
+        if (checkpoint.getCharacterPosition() < 0) {
+            return open(fileName, charset);
+        }
+        Map<String, Integer> headerMap = readHeaderMap(fileName, charset);
+        String[] header = header(headerMap);
+
+        Reader reader = openReader(fileName, charset);
+        long remaining = checkpoint.getCharacterPosition();
+        while (remaining > 0) {
+            long skipped = reader.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Input " + fileName + " is shorter than its checkpoint");
+            }
+            remaining -= skipped;
+        }
+        CSVParser parser = CSVFormat.DEFAULT.withHeader(header).parse(reader);
+        // the first row read is the committed row the checkpoint points at
+        Iterator<CSVRecord> records = parser.iterator();
+        if (records.hasNext()) {
+            records.next();
+        }
+        return new CsvInput(parser, headerMap, checkpoint.getCharacterPosition(), checkpoint.getRecordNumber() - 1, reader);
+    }
+
+    // inputs over up to parts byte ranges of the file, in file order; a compressed file is a single input
+    public static List<CsvInput> split(String fileName, Charset charset, int parts) throws IOException {
+        List<CsvInput> inputs = new ArrayList<CsvInput>();
+        if (isCompressed(fileName) || parts < 2) {
+            inputs.add(open(fileName, charset));
+            return inputs;
+        }
+        if (!charset.name().equals("UTF-8")) {
+            throw new IllegalArgumentException("Only UTF-8 input can be split, " + fileName + " is read as " + charset);
+        }
+        Map<String, Integer> headerMap = readHeaderMap(fileName, charset);
+        String[] header = header(headerMap);
+        for (CsvSplitter.Range range : new CsvSplitter(fileName).split(parts)) {
+            Reader reader = new MappedFileReader(fileName, charset, range.start, range.end);
+            CSVParser parser = CSVFormat.DEFAULT.withHeader(header).parse(reader);
+            inputs.add(new CsvInput(parser, headerMap, range.characterPosition, range.firstRecordNumber - 1, reader));
+        }
+        return inputs;
+    }
+
+    public static boolean isCompressed(String fileName) {
+        return fileName.endsWith(".gz") || fileName.endsWith(".zst");
+    }
+
+    // the uncompressed length for the progress estimate, or -1 when it isn't known up front
+    public static long inputSize(String fileName) {
+        return isCompressed(fileName) ? -1 : new File(fileName).length();
+    }
+
+    private static Reader openReader(String fileName, Charset charset) throws IOException {
+        if (fileName.endsWith(".gz")) {
+            return decoding(new GZIPInputStream(new FileInputStream(fileName), BUFFER_SIZE), charset);
+        }
+        if (fileName.endsWith(".zst")) {
+            return decoding(openZstd(new FileInputStream(fileName)), charset);
+        }
+        return new MappedFileReader(fileName, charset, 0, new File(fileName).length());
+    }
+
+    private static Reader decoding(InputStream in, Charset charset) {
+        return new BufferedReader(new InputStreamReader(in, charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)), BUFFER_SIZE);
+    }
+
+    // zstd-jni is looked up at run time, so it is only needed by runs that read .zst input
+    private static InputStream openZstd(InputStream in) throws IOException {
+        try {
+            Class<?> type = Class.forName("com.github.luben.zstd.ZstdInputStream");
+            return new BufferedInputStream((InputStream) type.getConstructor(InputStream.class).newInstance(in), BUFFER_SIZE);
+        } catch (ClassNotFoundException e) {
+            in.close();
+            throw new IOException("Reading .zst input needs zstd-jni on the classpath");
+        } catch (InvocationTargetException e) {
+            in.close();
+            throw new IOException("Could not open zstd input: " + e.getCause(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            in.close();
+            throw new IOException("Could not open zstd input: " + e, e);
+        }
+    }
+
+    private static Map<String, Integer> readHeaderMap(String fileName, Charset charset) throws IOException {
+        CSVParser headerParser = CSVFormat.DEFAULT.withHeader().parse(openReader(fileName, charset));
+        try {
+            return headerParser.getHeaderMap();
+        } finally {
+            headerParser.close();
+        }
+    }
+
+    private static String[] header(Map<String, Integer> headerMap) {
+        String[] header = new String[headerMap.size()];
+        for (Map.Entry<String, Integer> column : headerMap.entrySet()) {
+            header[column.getValue()] = column.getKey();
+        }
+        return header;
+    }
+
+    public Map<String, Integer> getHeaderMap() {
+        return headerMap;
+    }
+
+    public long getRecordNumber(CSVRecord record) {
+        return baseRecordNumber + record.getRecordNumber();
+    }
+
+    public long getCharacterPosition(CSVRecord record) {
+        return basePosition + record.getCharacterPosition();
+    }
+
+    // byte offset in the file read so far, a little ahead of the last record as the parser reads ahead; -1 when compressed
+    public long getBytePosition() {
+        return mapped == null ? -1 : mapped.position();
+    }
+
+    @Override
+    public Iterator<CSVRecord> iterator() {
+        return parser.iterator();
+    }
+
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,101 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts an uncompressed UTF-8 csv into byte ranges that start and end on
+ * record boundaries, for CsvInput.split. A newline only ends a record
+ * outside quotes, so the quote state is tracked over the whole file;
+ * the same pass counts records and characters, so the rows of a range
+ * keep the record numbers and character positions they have in the
+ * whole file. Empty lines are skipped by the parser, so they are not
+ * counted as records. Quotes are taken to only appear in quoted fields,
+ * as in the csv CSVPrinter writes.
+ */
+class CsvSplitter {
+    private final String fileName;
+
+    CsvSplitter(String fileName) {
+        this.fileName = fileName;
+    }
+
+    // up to parts non-empty ranges of about the same size, after the header line
+    List<Range> split(int parts) throws IOException {
+        List<Range> ranges = new ArrayList<Range>();
+        FileChannel channel = new RandomAccessFile(fileName, "r").getChannel();
+        try {
+            long size = channel.size();
+            boolean quoted = false;
+            boolean header = true;
+            // nothing but a carriage return seen since the last record ended
+            boolean emptyLine = true;
+            long records = 0;
+            long characters = 0;
+            Range current = null;
+            long nextCut = 0;
+            for (long regionStart = 0; regionStart < size; regionStart += MappedFileReader.REGION_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                        Math.min(MappedFileReader.REGION_SIZE, size - regionStart));
+                for (int i = 0; i < region.limit(); i++) {
+                    byte b = region.get(i);
+                    // continuation bytes don't start a character, and a four byte sequence is a surrogate pair
+                    if ((b & 0xC0) != 0x80) {
+                        characters += (b & 0xF8) == 0xF0 ? 2 : 1;
+                    }
+                    if (b == '"') {
+                        quoted = !quoted;
+                        emptyLine = false;
+                    } else if (b == '\n' && !quoted) {
+                        long offset = regionStart + i + 1;
+                        if (!emptyLine) {
+                            if (header) {
+                                header = false;
+                            } else {
+                                records++;
+                            }
+                        }
+                        emptyLine = true;
+                        if (!header && offset >= nextCut && offset < size) {
+                            if (current != null) {
+                                current.end = offset;
+                            }
+                            current = new Range(offset, characters, records + 1);
+                            ranges.add(current);
+                            nextCut = offset + (size - offset) / Math.max(1, parts - ranges.size() + 1);
+                        }
+                    } else if (b != '\r') {
+                        emptyLine = false;
+                    }
+                }
+            }
+            if (current != null) {
+                current.end = size;
+            }
+        } finally {
+            channel.close();
+        }
+        return ranges;
+    }
+
+    /**
+     * A byte range of whole records, with the character position and
+     * record number its first record has in the whole file.
+     */
+    static class Range {
+        final long start;
+        long end;
+        final long characterPosition;
+        final long firstRecordNumber;
+
+        private Range(long start, long characterPosition, long firstRecordNumber) {
+            this.start = start;
+            this.characterPosition = characterPosition;
+            this.firstRecordNumber = firstRecordNumber;
+        }
+    }
+}
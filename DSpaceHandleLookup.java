@@ -0,0 +1,129 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.dspace.content.Collection;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HandleLookup on a DSpace Context.
+ */
+class DSpaceHandleLookup implements HandleLookup {
+    private static final String ITEM_QUERY =
+            "SELECT h.handle, h.resource_id, ch.handle AS owning_collection_handle FROM handle h " +
+            "JOIN item i ON i.item_id = h.resource_id " +
+            "LEFT JOIN handle ch ON ch.resource_type_id = " + Constants.COLLECTION + " AND ch.resource_id = i.owning_collection " +
+            "WHERE h.resource_type_id = " + Constants.ITEM + " AND h.handle IN (";
+    private static final String MAPPING_QUERY = "SELECT item_id, collection_id FROM collection2item WHERE item_id IN (";
+    private static final String OWNER_QUERY =
+            "SELECT i.item_id, ch.handle AS owning_collection_handle FROM item i " +
+            "LEFT JOIN handle ch ON ch.resource_type_id = " + Constants.COLLECTION + " AND ch.resource_id = i.owning_collection " +
+            "WHERE i.item_id IN (";
+    // stay below the 1000 element IN list limit of some databases
+    private static final int QUERY_SIZE = 1000;
+    private final Context context;
+
+    DSpaceHandleLookup(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public int resolveCollection(String collectionHandle) throws SQLException {
+        DSpaceObject dso = HandleManager.resolveToObject(context, collectionHandle);
+        if (!(dso instanceof Collection)) {
+            return -1;
+        }
+        return dso.getID();
+    }
+
+    @Override
+    public Map<String, ResolvedItem> resolveItems(Set<String> itemHandles) throws SQLException {
+        Map<String, ResolvedItem> items = new HashMap<String, ResolvedItem>();
+        // a chunk grows past QUERY_SIZE with a large --group-size
+        for (List<String> handles : chunks(itemHandles)) {
+            TableRowIterator rows = DatabaseManager.query(context, inList(ITEM_QUERY, handles.size()), handles.toArray());
+            try {
+                while (rows.hasNext()) {
+                    TableRow row = rows.next();
+                    ResolvedItem item = new ResolvedItem(row.getStringColumn("handle"), row.getIntColumn("resource_id"),
+                            row.getStringColumn("owning_collection_handle"));
+                    items.put(item.handle, item);
+                }
+            } finally {
+                rows.close();
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public Set<Long> resolveMappings(Set<Integer> itemIds) throws SQLException {
+        Set<Long> mappings = new HashSet<Long>();
+        for (List<Integer> ids : chunks(itemIds)) {
+            TableRowIterator rows = DatabaseManager.query(context, inList(MAPPING_QUERY, ids.size()), ids.toArray());
+            try {
+                while (rows.hasNext()) {
+                    TableRow row = rows.next();
+                    mappings.add(HandleResolver.mappingKey(row.getIntColumn("item_id"), row.getIntColumn("collection_id")));
+                }
+            } finally {
+                rows.close();
+            }
+        }
+        return mappings;
+    }
+
+    @Override
+    public Map<Integer, String> resolveOwners(Set<Integer> itemIds) throws SQLException {
+        Map<Integer, String> owners = new HashMap<Integer, String>();
+        for (List<Integer> ids : chunks(itemIds)) {
+            TableRowIterator rows = DatabaseManager.query(context, inList(OWNER_QUERY, ids.size()), ids.toArray());
+            try {
+                while (rows.hasNext()) {
+                    TableRow row = rows.next();
+                    owners.put(row.getIntColumn("item_id"), row.getStringColumn("owning_collection_handle"));
+                }
+            } finally {
+                rows.close();
+            }
+        }
+        return owners;
+    }
+
+    private static <T> List<List<T>> chunks(Set<T> keys) {
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        List<T> chunk = new ArrayList<T>(QUERY_SIZE);
+        for (T key : keys) {
+            if (chunk.size() == QUERY_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<T>(QUERY_SIZE);
+            }
+            chunk.add(key);
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static String inList(String query, int size) {
+        StringBuilder sql = new StringBuilder(query);
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+}
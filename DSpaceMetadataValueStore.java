@@ -0,0 +1,87 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.MetadataValue;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Event;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MetadataValueStore on a DSpace Context.
+ */
+class DSpaceMetadataValueStore implements MetadataValueStore {
+    private final Context context;
+
+    DSpaceMetadataValueStore(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void load(List<Integer> ids, IntObjectMap<MetadataValue> into) throws SQLException {
+        StringBuilder query = new StringBuilder("SELECT * FROM metadatavalue WHERE metadata_value_id IN (");
+        for (int i = 0; i < ids.size(); i++){
+            query.append(i == 0 ? "?" : ",?");
+        }
+        query.append(")");
+        TableRowIterator rows = DatabaseManager.queryTable(context, "metadatavalue", query.toString(), ids.toArray());
+        try {
+            while (rows.hasNext()){
+                MetadataValue mdv = new MetadataValue(rows.next());
+                into.put(mdv.getValueId(), mdv);
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    @Override
+    public MetadataValue find(int id) throws SQLException, IOException, AuthorizeException {
+        return MetadataValue.find(context, id);
+    }
+
+    @Override
+    public void create(MetadataValue mdv) throws SQLException, AuthorizeException {
+        mdv.create(context);
+    }
+
+    @Override
+    public void update(MetadataValue mdv) throws SQLException, AuthorizeException {
+        mdv.update(context);
+    }
+
+    @Override
+    public void delete(MetadataValue mdv) throws SQLException, AuthorizeException {
+        mdv.delete(context);
+    }
+
+    @Override
+    public void commit(Set<Integer> changedItemIds) throws SQLException {
+        for (int item_id : changedItemIds){
+            context.addEvent(new Event(Event.MODIFY_METADATA, Constants.ITEM, item_id, null));
+        }
+        context.commit();
+        context.clearCache();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        context.getDBConnection().rollback();
+        context.clearCache();
+    }
+
+    @Override
+    public void close(boolean succeeded) throws SQLException {
+        if (succeeded){
+            context.complete();
+        } else {
+            context.abort();
+        }
+    }
+}
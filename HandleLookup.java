@@ -0,0 +1,26 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The handle queries behind HandleResolver. DSpaceHandleLookup is the
+ * real one; the benchmarks use an in-memory stand-in.
+ */
+interface HandleLookup {
+
+    // returns the collection id for a handle, or -1 if it does not resolve to a collection
+    int resolveCollection(String collectionHandle) throws SQLException;
+
+    // resolves item handles in one query; handles that are not items are left out
+    Map<String, ResolvedItem> resolveItems(Set<String> itemHandles) throws SQLException;
+
+    // the collections each item is in, owning collection included, as HandleResolver.mappingKey pairs
+    Set<Long> resolveMappings(Set<Integer> itemIds) throws SQLException;
+
+    // the owning collection handle of each item, null for an item without one
+    Map<Integer, String> resolveOwners(Set<Integer> itemIds) throws SQLException;
+}
@@ -0,0 +1,101 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the handles of a BatchItemMapper run.
+ * Collection handles go through a small LRU cache since a mapping file
+ * usually targets a handful of collections; item handles are resolved a
+ * chunk at a time with one query against the handle table. How often
+ * each is used is added to the run's metrics counters.
+ */
+class HandleResolver {
+    static final String COLLECTION_CACHE_HITS = "collection_cache_hits";
+    static final String COLLECTION_CACHE_MISSES = "collection_cache_misses";
+    static final String ITEM_HANDLE_QUERIES = "item_handle_queries";
+    static final String ITEM_HANDLES_RESOLVED = "item_handles_resolved";
+    private static final int COLLECTION_CACHE_SIZE = 1024;
+    private final HandleLookup lookup;
+    private final Map<String, Integer> collectionIds = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > COLLECTION_CACHE_SIZE;
+        }
+    };
+    private long collectionHits = 0;
+    private long collectionMisses = 0;
+    private long itemQueries = 0;
+    private long itemsResolved = 0;
+
+    HandleResolver(HandleLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    // returns the collection id for a handle, or -1 if it does not resolve to a collection
+    int getCollectionId(String collectionHandle) throws SQLException {
+        Integer id = collectionIds.get(collectionHandle);
+        if (id != null) {
+            collectionHits++;
+            return id;
+        }
+        collectionMisses++;
+        int collectionId = lookup.resolveCollection(collectionHandle);
+        if (collectionId != -1) {
+            collectionIds.put(collectionHandle, collectionId);
+        }
+        return collectionId;
+    }
+
+    // resolves the distinct item handles of a chunk in one query; handles that are not items are left out
+    Map<String, ResolvedItem> resolveItems(List<MappingRow> chunk) throws SQLException {
+        Set<String> handles = new LinkedHashSet<String>();
+        for (MappingRow row : chunk) {
+            handles.add(row.itemHandle);
+        }
+        itemQueries++;
+        Map<String, ResolvedItem> items = lookup.resolveItems(handles);
+        itemsResolved += items.size();
+        return items;
+    }
+
+    Set<Long> getMappings(Set<Integer> itemIds) throws SQLException {
+        return lookup.resolveMappings(itemIds);
+    }
+
+    Map<Integer, String> getOwners(Set<Integer> itemIds) throws SQLException {
+        return lookup.resolveOwners(itemIds);
+    }
+
+    // an item's membership of a collection as one key
+    static long mappingKey(int itemId, int collectionId) {
+        return ((long) itemId << 32) | (collectionId & 0xFFFFFFFFL);
+    }
+
+    // adds the lookups so far to the counters, summed over every worker's resolver
+    void addTo(LauncherMetrics metrics) {
+        metrics.add(COLLECTION_CACHE_HITS, collectionHits);
+        metrics.add(COLLECTION_CACHE_MISSES, collectionMisses);
+        metrics.add(ITEM_HANDLE_QUERIES, itemQueries);
+        metrics.add(ITEM_HANDLES_RESOLVED, itemsResolved);
+    }
+
+    static class ResolvedItem {
+        final String handle;
+        final int id;
+        // null for items without an owning collection
+        final String owningCollectionHandle;
+
+        ResolvedItem(String handle, int id, String owningCollectionHandle) {
+            this.handle = handle;
+            this.id = id;
+            this.owningCollectionHandle = owningCollectionHandle;
+        }
+    }
+}
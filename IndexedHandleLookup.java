@@ -0,0 +1,59 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.dspace.core.Constants;
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+import uiuc.edu.dspace.app.launcher.LookupIndex;
+import uiuc.edu.dspace.app.launcher.LookupIndex.HandleEntry;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HandleLookup on a LookupIndex. The index is only opened while its
+ * token matches the repository, so a handle it doesn't hold doesn't
+ * resolve. A move changes the owning collections the index holds, so
+ * moves keep resolving items through DSpaceHandleLookup, and the
+ * mappings and owners a run changes are always read from the database.
+ */
+class IndexedHandleLookup implements HandleLookup {
+    private final LookupIndex index;
+    private final HandleLookup database;
+
+    IndexedHandleLookup(LookupIndex index, HandleLookup database) {
+        this.index = index;
+        this.database = database;
+    }
+
+    @Override
+    public int resolveCollection(String collectionHandle) {
+        HandleEntry entry = index.findHandle(collectionHandle);
+        if (entry == null || entry.type != Constants.COLLECTION) {
+            return -1;
+        }
+        return entry.id;
+    }
+
+    @Override
+    public Map<String, ResolvedItem> resolveItems(Set<String> itemHandles) {
+        Map<String, ResolvedItem> items = new HashMap<String, ResolvedItem>();
+        for (String handle : itemHandles) {
+            HandleEntry entry = index.findHandle(handle);
+            if (entry != null && entry.type == Constants.ITEM) {
+                items.put(handle, new ResolvedItem(handle, entry.id, entry.owningCollectionHandle));
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public Set<Long> resolveMappings(Set<Integer> itemIds) throws SQLException {
+        return database.resolveMappings(itemIds);
+    }
+
+    @Override
+    public Map<Integer, String> resolveOwners(Set<Integer> itemIds) throws SQLException {
+        return database.resolveOwners(itemIds);
+    }
+}
@@ -0,0 +1,102 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pre-flight validation of a launcher's input.
+ * Splits the input into byte ranges and checks them in parallel, each
+ * with a RowValidator on its own context, a chunk of rows at a time.
+ * Every problem goes to a ValidationReport, so a run can be refused
+ * before its first write instead of stopping part way through.
+ */
+public class InputValidator<R extends LauncherRow> {
+    // rows checked with one round of queries
+    static final int CHUNK_SIZE = 1000;
+    private final RowValidatorFactory<R> factory;
+    private final String fileName;
+    private final Charset charset;
+    private final int threads;
+
+    public InputValidator(RowValidatorFactory<R> factory, String fileName, Charset charset, int threads) {
+        this.factory = factory;
+        this.fileName = fileName;
+        this.charset = charset;
+        this.threads = threads;
+    }
+
+    // returns the number of problems written to the report
+    public long validate(ValidationReport report) throws Exception {
+        long start = System.nanoTime();
+        List<CsvInput> ranges = CsvInput.split(fileName, charset, threads);
+        if (ranges.isEmpty()) {
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        long rows = 0;
+        try {
+            List<Future<Long>> checked = new ArrayList<Future<Long>>();
+            for (CsvInput range : ranges) {
+                checked.add(executor.submit(check(range, report)));
+            }
+            for (Future<Long> rangeRows : checked) {
+                try {
+                    rows += rangeRows.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (CsvInput range : ranges) {
+                range.close();
+            }
+        }
+        System.out.printf("Validated %d rows in %d ranges in %.1f secs, %d problems found\n", rows, ranges.size(),
+                (System.nanoTime() - start) / 1e9, report.getProblems());
+        return report.getProblems();
+    }
+
+    private Callable<Long> check(final CsvInput range, final ValidationReport report) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                RowValidator<R> validator = factory.createValidator(range);
+                long rows = 0;
+                try {
+                    List<R> chunk = new ArrayList<R>(CHUNK_SIZE);
+                    for (CSVRecord record : range) {
+                        rows++;
+                        try {
+                            chunk.add(validator.parse(record));
+                        } catch (RuntimeException e) {
+                            report.problem(range.getRecordNumber(record), "", "", String.valueOf(e.getMessage()));
+                            continue;
+                        }
+                        if (chunk.size() == CHUNK_SIZE) {
+                            validator.check(chunk, report);
+                            chunk = new ArrayList<R>(CHUNK_SIZE);
+                        }
+                    }
+                    if (!chunk.isEmpty()) {
+                        validator.check(chunk, report);
+                    }
+                } finally {
+                    validator.close();
+                }
+                return rows;
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * The ids of the items a launcher run changed, kept as a bitmap.
+ * Stored next to the rollback file so the search index can be brought
+ * up to date for just those items, after the run or on its own with
+ * ItemReindexer. Safe to share between worker threads.
+ */
+public class ItemIdSet {
+    private final BitSet ids;
+
+    public ItemIdSet() {
+        this(new BitSet());
+    }
+
+    private ItemIdSet(BitSet ids) {
+        this.ids = ids;
+    }
+
+    public static String fileFor(String rollbackFileName) {
+        return rollbackFileName + ".reindex";
+    }
+
+    // reads a stored set, or returns an empty one if there is none
+    public static ItemIdSet read(String fileName) throws IOException {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return new ItemIdSet();
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return new ItemIdSet(BitSet.valueOf(words));
+        } finally {
+            in.close();
+        }
+    }
+
+    public synchronized void add(int itemId) {
+        ids.set(itemId);
+    }
+
+    public synchronized void addAll(Iterable<Integer> itemIds) {
+        for (int itemId : itemIds) {
+            ids.set(itemId);
+        }
+    }
+
+    public void addAll(ItemIdSet other) {
+        BitSet otherIds;
+        synchronized (other) {
+            otherIds = (BitSet) other.ids.clone();
+        }
+        synchronized (this) {
+            ids.or(otherIds);
+        }
+    }
+
+    public synchronized void remove(int[] itemIds) {
+        for (int itemId : itemIds) {
+            ids.clear(itemId);
+        }
+    }
+
+    public synchronized int size() {
+        return ids.cardinality();
+    }
+
+    public synchronized int[] toArray() {
+        int[] array = new int[ids.cardinality()];
+        int i = 0;
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            array[i++] = id;
+        }
+        return array;
+    }
+
+    // written to a temporary file and moved into place, like the checkpoint
+    public synchronized void write(String fileName) throws IOException {
+        File file = new File(fileName);
+        File temp = new File(fileName + ".tmp");
+        long[] words = ids.toLongArray();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
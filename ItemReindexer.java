@@ -0,0 +1,156 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.search.DSIndexer;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Re-indexes the items recorded in an ItemIdSet file.
+ * The launchers run with the search index in batch mode and call this
+ * at the end, so only the items they changed are re-indexed instead of
+ * rebuilding the whole index. Batches of items are indexed in parallel,
+ * each worker with its own context, and the file is rewritten after
+ * every batch so an interrupted re-index picks up where it stopped.
+ * Can also be run on its own against the file a launcher left behind.
+ */
+public class ItemReindexer {
+    private final ItemIdSet ids;
+    private final String idFileName;
+    private final int workers;
+    private final int batchSize;
+
+    public ItemReindexer(ItemIdSet ids, String idFileName, int workers, int batchSize) {
+        this.ids = ids;
+        this.idFileName = idFileName;
+        this.workers = workers;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] argv) {
+        Date startTime = new Date();
+        int status = 0;
+        try
+        {
+            CommandLineParser parser = new PosixParser();
+            Options options = new Options();
+            options.addOption("f", "file", true, "item id file written by a launcher run, the rollback file name followed by .reindex");
+            options.addOption("w", "workers", true, "number of workers, each with its own context (default 2)");
+            options.addOption("b", "batch-size", true, "number of items a worker indexes before the file is updated (default 100)");
+            options.addOption("h", "help", false, "help");
+            CommandLine line = parser.parse(options, argv);
+            if (line.hasOption('h') || !line.hasOption('f')){
+                new HelpFormatter().printHelp(ItemReindexer.class.toString(), options);
+                System.exit(0);
+            }
+            String idFileName = line.getOptionValue("f");
+            if (!new File(idFileName).exists()){
+                System.out.printf("Item id file %s not found\n", idFileName);
+                System.exit(1);
+            }
+            int workers = Integer.parseInt(line.getOptionValue("w", "2"));
+            int batchSize = Integer.parseInt(line.getOptionValue("b", "100"));
+            if (workers < 1 || batchSize < 1){
+                System.out.println("workers and batch-size must be at least 1");
+                System.exit(1);
+            }
+            new ItemReindexer(ItemIdSet.read(idFileName), idFileName, workers, batchSize).reindex();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println(e);
+            status = 1;
+        } finally {
+            Date endTime = new Date();
+            System.out.println("Elapsed time: " + ((endTime.getTime() - startTime.getTime()) / 1000) + " secs (" + (endTime.getTime() - startTime.getTime()) + " msecs)");
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Called by the launchers once the index is out of batch mode.
+     * Saves the changed items next to the rollback file and, unless
+     * workers is 0, re-indexes them; a failed re-index leaves the file
+     * for a later run of this class.
+     */
+    public static void reindexAfterRun(ItemIdSet modified, String rollbackFileName, int workers) {
+        String idFileName = ItemIdSet.fileFor(rollbackFileName);
+        try {
+            modified.write(idFileName);
+            if (workers == 0) {
+                System.out.printf("%d changed items recorded in %s for re-indexing\n", modified.size(), idFileName);
+                return;
+            }
+            new ItemReindexer(modified, idFileName, workers, 100).reindex();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.printf("Re-index failed (%s), the remaining items are recorded in %s\n", e, idFileName);
+        }
+    }
+
+    public void reindex() throws Exception {
+        int[] pending = ids.toArray();
+        System.out.printf("Re-indexing %d items with %d workers\n", pending.length, workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<Void>> batches = new ArrayList<Future<Void>>();
+        try {
+            for (int start = 0; start < pending.length; start += batchSize) {
+                final int[] batch = Arrays.copyOfRange(pending, start, Math.min(start + batchSize, pending.length));
+                batches.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        indexBatch(batch);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> batch : batches) {
+                try {
+                    batch.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        new File(idFileName).delete();
+        System.out.printf("Re-indexed %d items\n", pending.length);
+    }
+
+    private void indexBatch(int[] batch) throws Exception {
+        Context context = new Context();
+        try {
+            for (int itemId : batch) {
+                Item item = Item.find(context, itemId);
+                // items deleted since the run have nothing left to index
+                if (item != null) {
+                    DSIndexer.indexContent(context, item, true);
+                    item.decache();
+                }
+            }
+            context.complete();
+        } finally {
+            if (context.isValid()) {
+                context.abort();
+            }
+        }
+        ids.remove(batch);
+        ids.write(idFileName);
+    }
+}
@@ -0,0 +1,460 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.dspace.core.Context;
+import org.dspace.search.DSIndexer;
+import uiuc.edu.dspace.app.batchItemMapper.BatchItemMapper;
+import uiuc.edu.dspace.app.metadatavalueimport.MetadataValueUpdater;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs many launcher inputs as jobs of one JVM.
+ * The jobs come from a manifest csv with tool and input columns, and
+ * optional rollback and args columns, or from a directory of csvs whose
+ * names start with their tool: update-, map-, unmap- or move-. The
+ * DSpace kernel, connection pool and lookup index are set up once, the
+ * search index stays in batch mode for the whole queue, and the items
+ * all jobs changed are re-indexed once at the end. Every job runs its
+ * own launcher and context and gets its own rollback file and metrics
+ * json, plus a row in the queue's summary.csv.
+ *
+ * Jobs run one at a time, in order, unless --concurrency is given; jobs
+ * that run together must not change the same items. With --resume, a
+ * job whose checkpoint is complete is not run again, and a job that left
+ * a rollback file without a checkpoint is not started over, since that
+ * would truncate its rollback file.
+ *
+ * The args column is split on whitespace outside of quotes, so
+ * "-x /data/my errors.csv" is written as -x "/data/my errors.csv".
+ */
+public class JobQueue {
+    private static final String[] TOOLS = {"update", "map", "unmap", "move"};
+    private static final String[] INPUT_SUFFIXES = {".csv", ".csv.gz", ".csv.zst"};
+    private static final String[] SUMMARY_HEADER = {"input", "tool", "rollback", "status", "seconds", "metrics"};
+    private final List<Job> jobs;
+    private final List<String> commonArgs;
+    private final boolean resume;
+    private final boolean keepGoing;
+    // the items all jobs changed
+    private final ItemIdSet modified = new ItemIdSet();
+
+    private JobQueue(List<Job> jobs, List<String> commonArgs, boolean resume, boolean keepGoing) {
+        this.jobs = jobs;
+        this.commonArgs = commonArgs;
+        this.resume = resume;
+        this.keepGoing = keepGoing;
+    }
+
+    private static class Job {
+        final String tool;
+        final String input;
+        final String rollback;
+        final List<String> args;
+        String status = "skipped";
+        double seconds = 0;
+
+        Job(String tool, String input, String rollback, List<String> args) {
+            this.tool = tool;
+            this.input = input;
+            this.rollback = rollback;
+            this.args = args;
+        }
+
+        String metricsFileName() {
+            return rollback + ".metrics.json";
+        }
+    }
+
+    public static void main(String[] argv) {
+        int status = 0;
+        try
+        {
+            CommandLineParser parser = new PosixParser();
+            Options options = new Options();
+            options.addOption("f", "file", true, "manifest csv with tool, input and optional rollback and args columns, or a directory of update-, map-, unmap- and move- csvs");
+            options.addOption("o", "output-dir", true, "directory for the jobs' rollback files and metrics and the queue's summary.csv");
+            options.addOption("e", "eperson", true, "eperson to perform the jobs as");
+            options.addOption("c", "concurrency", true, "number of jobs run at a time (default 1)");
+            options.addOption("k", "keep-going", false, "start the remaining jobs after one fails");
+            options.addOption("R", "resume", false, "resume the jobs whose rollback file has an unfinished checkpoint, skip the finished ones");
+            options.addOption("I", "index", true, "lookup index file the jobs answer handle and metadata value lookups from");
+            options.addOption("W", "warm-index", false, "build the lookup index, or rebuild it if it is out of date, before the first job");
+            options.addOption("w", "reindex-workers", true, "number of workers re-indexing the items all jobs changed, 0 to only record their ids (default 2)");
+            options.addOption("v", "verbose", false, "verbose logging to stdout");
+            options.addOption("h", "help", false, "help");
+            CommandLine line = parser.parse(options, argv);
+            if (line.hasOption('h')){
+                new HelpFormatter().printHelp(JobQueue.class.toString(), options);
+                System.exit(0);
+            }
+            if (!line.hasOption('f') || !line.hasOption('o') || !line.hasOption('e')){
+                System.out.println("-f, -o and -e are required");
+                new HelpFormatter().printHelp(JobQueue.class.toString(), options);
+                System.exit(1);
+            }
+            int concurrency = Integer.parseInt(line.getOptionValue("c", "1"));
+            int reindexWorkers = Integer.parseInt(line.getOptionValue("w", "2"));
+            if (concurrency < 1 || reindexWorkers < 0){
+                System.out.println("concurrency must be at least 1 and reindex-workers must not be negative");
+                System.exit(1);
+            }
+            if (line.hasOption("W") && !line.hasOption("I")){
+                System.out.println("warm-index needs an index file");
+                System.exit(1);
+            }
+            File source = new File(line.getOptionValue("f"));
+            File outputDir = new File(line.getOptionValue("o"));
+            if (!source.exists()){
+                System.out.printf("Manifest or directory %s not found\n", source);
+                System.exit(1);
+            }
+            // the rollback files would be picked up as jobs on the next run
+            if (source.isDirectory() && source.getCanonicalPath().equals(outputDir.getCanonicalPath())){
+                System.out.println("The output directory must not be the input directory");
+                System.exit(1);
+            }
+            if (!outputDir.isDirectory() && !outputDir.mkdirs()){
+                System.out.printf("Output directory %s could not be created\n", outputDir);
+                System.exit(1);
+            }
+            List<Job> jobs = source.isDirectory() ? scanDirectory(source, outputDir) : readManifest(source, outputDir);
+            if (jobs == null){
+                System.exit(1);
+            }
+            List<String> commonArgs = new ArrayList<String>();
+            commonArgs.add("-e");
+            commonArgs.add(line.getOptionValue("e"));
+            if (line.hasOption("I")){
+                commonArgs.add("-I");
+                commonArgs.add(line.getOptionValue("I"));
+            }
+            if (line.hasOption("v")){
+                commonArgs.add("-v");
+            }
+            if (line.hasOption("W")){
+                warmIndex(line.getOptionValue("I"));
+            }
+            JobQueue queue = new JobQueue(jobs, commonArgs, line.hasOption("R"), line.hasOption("k"));
+            status = queue.run(concurrency, new File(outputDir, "summary.csv").getPath(), reindexWorkers);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println(e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    // the index is warmed once, so the jobs only check its token
+    private static void warmIndex(String indexFileName) throws Exception {
+        Context c = new Context();
+        try {
+            LookupIndex.warm(c, indexFileName);
+        } finally {
+            c.abort();
+        }
+    }
+
+    private int run(int concurrency, String summaryFileName, int reindexWorkers) throws Exception {
+        long start = System.nanoTime();
+        System.out.printf("Running %d jobs, %d at a time\n", jobs.size(), concurrency);
+        DSIndexer.setBatchProcessingMode(true);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<Void>> running = new ArrayList<Future<Void>>();
+            for (final Job job : jobs) {
+                running.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // jobs after a failure are left alone unless --keep-going
+                        if (!failed.get() || keepGoing) {
+                            if (runJob(job) != 0) {
+                                failed.set(true);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> job : running) {
+                try {
+                    job.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            DSIndexer.setBatchProcessingMode(false);
+            try {
+                writeSummary(summaryFileName);
+            } finally {
+                reindex(summaryFileName, reindexWorkers);
+            }
+        }
+        int succeeded = 0;
+        for (Job job : jobs) {
+            if (job.status.equals("ok")) {
+                succeeded++;
+            }
+        }
+        System.out.printf("%d of %d jobs succeeded in %.1f secs, summary in %s\n", succeeded, jobs.size(),
+                (System.nanoTime() - start) / 1e9, summaryFileName);
+        return succeeded == jobs.size() ? 0 : 1;
+    }
+
+    // a fresh launcher per job, so no state carries over from the job before
+    private int runJob(Job job) {
+        List<String> args = new ArrayList<String>();
+        args.add("-f");
+        args.add(job.input);
+        args.add("-r");
+        args.add(job.rollback);
+        args.add("-j");
+        args.add(job.metricsFileName());
+        args.addAll(commonArgs);
+        long start = System.nanoTime();
+        if (resume) {
+            String skip = resumeState(job, args);
+            if (skip != null) {
+                job.status = skip;
+                System.out.printf("Not running %s job on %s: %s\n", job.tool, job.input,
+                        skip.equals("ok") ? "it has already completed"
+                                : "it can't be resumed; undo it with RollbackReplayer or move its rollback file away to start it over");
+                return skip.equals("ok") ? 0 : 1;
+            }
+        }
+        Launcher launcher;
+        if (job.tool.equals("update")) {
+            launcher = new MetadataValueUpdater();
+        } else {
+            launcher = new BatchItemMapper();
+            args.add(job.tool.equals("map") ? "-m" : job.tool.equals("unmap") ? "-u" : "-M");
+        }
+        args.addAll(job.args);
+        System.out.printf("Starting %s job on %s\n", job.tool, job.input);
+        launcher.queued = true;
+        int status = launcher.launch(args.toArray(new String[args.size()]));
+        if (launcher.modified != null) {
+            modified.addAll(launcher.modified);
+        }
+        job.seconds = (System.nanoTime() - start) / 1e9;
+        job.status = status == 0 ? "ok" : "failed";
+        System.out.printf("Finished %s job on %s: %s in %.1f secs\n", job.tool, job.input, job.status, job.seconds);
+        return status;
+    }
+
+    // adds -R for a job with an unfinished checkpoint; returns the job's status if it must not run, null otherwise
+    private static String resumeState(Job job, List<String> args) {
+        Checkpoint checkpoint = new Checkpoint(job.rollback);
+        try {
+            if (!checkpoint.load()) {
+                // a run that wrote rollback rows without a checkpoint to resume from would lose them
+                return new File(job.rollback).exists() ? "failed" : null;
+            }
+        } catch (IOException e) {
+            System.out.printf("Could not read the checkpoint of %s: %s\n", job.rollback, e);
+            return "failed";
+        }
+        if (checkpoint.isComplete()) {
+            return "ok";
+        }
+        args.add("-R");
+        return null;
+    }
+
+    private void writeSummary(String summaryFileName) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(summaryFileName), Charset.forName("UTF-8")));
+        CSVPrinter printer = CSVFormat.DEFAULT.withHeader(SUMMARY_HEADER).print(writer);
+        try {
+            for (Job job : jobs) {
+                printer.printRecord(job.input, job.tool, job.rollback, job.status, String.format("%.1f", job.seconds),
+                        job.metricsFileName());
+            }
+        } finally {
+            printer.close();
+        }
+    }
+
+    // the union of the jobs' items is indexed once and recorded next to the summary; it replaces the jobs' own files
+    private void reindex(String summaryFileName, int workers) {
+        ItemReindexer.reindexAfterRun(modified, summaryFileName, workers);
+        for (Job job : jobs) {
+            new File(ItemIdSet.fileFor(job.rollback)).delete();
+        }
+    }
+
+    // returns null if the manifest can't be run
+    private static List<Job> readManifest(File manifest, File outputDir) throws IOException {
+        List<Job> jobs = new ArrayList<Job>();
+        boolean ok = true;
+        CsvInput input = CsvInput.open(manifest.getPath(), Charset.forName("UTF-8"));
+        try {
+            Map<String, Integer> header = input.getHeaderMap();
+            if (!header.containsKey("tool") || !header.containsKey("input")) {
+                System.out.printf("Manifest %s needs tool and input columns\n", manifest);
+                return null;
+            }
+            for (CSVRecord record : input) {
+                String tool = record.get("tool").trim();
+                String inputFileName = resolve(manifest, record.get("input").trim());
+                if (!Arrays.asList(TOOLS).contains(tool)) {
+                    System.out.printf("Manifest row %d: unknown tool \"%s\", expected one of %s\n", input.getRecordNumber(record),
+                            tool, Arrays.toString(TOOLS));
+                    ok = false;
+                    continue;
+                }
+                String rollback = header.containsKey("rollback") && !record.get("rollback").trim().equals("")
+                        ? resolve(manifest, record.get("rollback").trim())
+                        : new File(outputDir, baseName(new File(inputFileName).getName()) + ".rollback.csv").getPath();
+                List<String> args = new ArrayList<String>();
+                if (header.containsKey("args") && !record.get("args").trim().equals("")) {
+                    try {
+                        args.addAll(splitArgs(record.get("args")));
+                    } catch (IllegalArgumentException e) {
+                        System.out.printf("Manifest row %d: %s\n", input.getRecordNumber(record), e.getMessage());
+                        ok = false;
+                        continue;
+                    }
+                }
+                jobs.add(new Job(tool, inputFileName, rollback, args));
+            }
+        } finally {
+            input.close();
+        }
+        return ok && checkJobs(jobs) ? jobs : null;
+    }
+
+    // the csvs named after a tool, in name order
+    private static List<Job> scanDirectory(File directory, File outputDir) {
+        List<Job> jobs = new ArrayList<Job>();
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.isFile() || baseName(file.getName()).equals(file.getName())) {
+                continue;
+            }
+            String tool = toolOf(file.getName());
+            if (tool == null) {
+                System.out.printf("Skipping %s, its name doesn't start with one of %s followed by -\n", file, Arrays.toString(TOOLS));
+                continue;
+            }
+            String rollback = new File(outputDir, baseName(file.getName()) + ".rollback.csv").getPath();
+            jobs.add(new Job(tool, file.getPath(), rollback, new ArrayList<String>()));
+        }
+        return checkJobs(jobs) ? jobs : null;
+    }
+
+    // every input exists and no two jobs write the same rollback file
+    private static boolean checkJobs(List<Job> jobs) {
+        boolean ok = true;
+        Set<String> rollbacks = new HashSet<String>();
+        for (Job job : jobs) {
+            if (!new File(job.input).exists()) {
+                System.out.printf("Input csv %s not found\n", job.input);
+                ok = false;
+            }
+            if (!rollbacks.add(new File(job.rollback).getAbsolutePath())) {
+                System.out.printf("More than one job writes the rollback file %s; name them in the manifest's rollback column\n", job.rollback);
+                ok = false;
+            }
+        }
+        if (jobs.isEmpty()) {
+            System.out.println("No jobs found");
+            ok = false;
+        }
+        return ok;
+    }
+
+    // splits on whitespace outside of single or double quotes, which are dropped
+    static List<String> splitArgs(String args) {
+        List<String> split = new ArrayList<String>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < args.length(); i++) {
+            char c = args.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    split.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                arg.append(c);
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("Unclosed " + quote + " in args \"" + args + "\"");
+        }
+        if (arg != null) {
+            split.add(arg.toString());
+        }
+        return split;
+    }
+
+    private static String toolOf(String fileName) {
+        for (String tool : TOOLS) {
+            if (fileName.startsWith(tool + "-")) {
+                return tool;
+            }
+        }
+        return null;
+    }
+
+    // the file name without its input suffix, or the name itself if it isn't an input
+    private static String baseName(String fileName) {
+        for (String suffix : INPUT_SUFFIXES) {
+            if (fileName.endsWith(suffix)) {
+                return fileName.substring(0, fileName.length() - suffix.length());
+            }
+        }
+        return fileName;
+    }
+
+    // manifest paths are relative to the manifest
+    private static String resolve(File manifest, String fileName) {
+        File file = new File(fileName);
+        if (file.isAbsolute()) {
+            return file.getPath();
+        }
+        return new File(manifest.getAbsoluteFile().getParentFile(), fileName).getPath();
+    }
+}
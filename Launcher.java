@@ -0,0 +1,319 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.core.Context;
+import org.dspace.eperson.EPerson;
+import org.dspace.search.DSIndexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * Common part of the csv driven launchers.
+ * Parses the shared options, finds the eperson, checks the files, sets
+ * up the rollback file, checkpoint and re-index set (or picks them up
+ * again on --resume), runs the tool's process with metrics and progress
+ * lines, and re-indexes the changed items once it is done. A tool adds
+ * its own options and validation and usually hands its rows to a
+ * BatchRunner. A tool with a RowValidatorFactory has its whole input
+ * checked before the run starts, and a run with problems is refused.
+ * With --index the tool can answer its handle and metadata value
+ * lookups from a LookupIndex instead of the database.
+ */
+public abstract class Launcher {
+    protected Context context;
+    protected String inFileName;
+    // the rollback file, or the report a tool writes instead of one
+    protected String outFileName;
+    protected boolean isVerbose;
+    protected boolean resume;
+    protected Checkpoint checkpoint;
+    // null when the tool writes no rollback file
+    protected RollbackWriter rollback;
+    protected LauncherMetrics metrics;
+    // items with committed changes, re-indexed after the run
+    protected ItemIdSet modified;
+    // null without --index, or when the index is out of date
+    protected LookupIndex index;
+    // set by a JobQueue, which keeps the search index in batch mode and re-indexes once all its jobs are done
+    boolean queued = false;
+
+    // the tool's own options
+    protected abstract void addOptions(Options options);
+
+    // returns why the options can't be run together, or null if they can
+    protected abstract String validate(CommandLine line);
+
+    protected abstract String[] rollbackHeader();
+
+    protected abstract void process() throws Exception;
+
+    // a tool that writes a report instead of changes names it here
+    protected String outputFileName(CommandLine line) {
+        return line.getOptionValue("r");
+    }
+
+    protected boolean writesRollback(CommandLine line) {
+        return true;
+    }
+
+    // the tool's pre-flight checks, or null if it has none
+    protected RowValidatorFactory<?> validatorFactory() {
+        return null;
+    }
+
+    // a resumed run was validated before it started; a dry run writes no rollback file and reports invalid rows itself
+    boolean validatesInput(CommandLine line) {
+        return !resume && !line.hasOption("n") && writesRollback(line) && validatorFactory() != null;
+    }
+
+    /**
+     * Checks that need the rows of every input range, run once the ranges
+     * have been validated in parallel; problems go to the same report.
+     */
+    protected void validateAcrossRanges(ValidationReport report) throws Exception {
+    }
+
+    protected Charset inputCharset() {
+        return Charset.forName("UTF-8");
+    }
+
+    /**
+     * Whether the batch a resumed run found pending committed before
+     * the interruption, judged from the probe its operation recorded.
+     * Null when the tool can't tell; its rollback rows are then kept and
+     * the batch applied again.
+     */
+    protected Boolean pendingBatchCommitted(String probe) throws Exception {
+        return null;
+    }
+
+    // runs the launcher and returns its exit status
+    protected int launch(String[] argv) {
+        if (!queued){
+            DSIndexer.setBatchProcessingMode(true);
+        }
+        Date startTime = new Date();
+        int status = 0;
+        String metricsFile = null;
+        int reindexWorkers = 2;
+        String indexFileName = null;
+        try
+        {
+            // create an options object and populate it
+            CommandLineParser parser = new PosixParser();
+            Options options = new Options();
+            options.addOption("f", "file", true, "input csv");
+            options.addOption("e", "eperson", true, "eperson to perform update actions");
+            options.addOption("r", "rollback", true, "name of rollback file");
+            options.addOption("v", "verbose", false, "verbose logging to stdout");
+            options.addOption("R", "resume", false, "resume an interrupted run after the last commit recorded in the rollback file's checkpoint");
+            options.addOption("i", "progress-interval", true, "seconds between progress lines, 0 for none (default 60)");
+            options.addOption("j", "metrics-json", true, "file to write the run's counters and per phase latencies to as json");
+            options.addOption("w", "reindex-workers", true, "number of workers re-indexing the changed items after the run, 0 to only record their ids next to the rollback file (default 2)");
+            options.addOption("n", "no-validation", false, "skip the pre-flight validation of the whole input");
+            options.addOption("x", "validation-report", true, "file to list the problems the validation finds in (default <rollback>.errors.csv)");
+            options.addOption("V", "validation-threads", true, "number of input ranges validated in parallel, each with its own context (default 4)");
+            options.addOption("I", "index", true, "lookup index file to answer handle and metadata value lookups from while it is up to date");
+            options.addOption("W", "warm-index", false, "build the lookup index, or rebuild it if it is out of date, before the run");
+            options.addOption("h", "help", false, "help");
+            addOptions(options);
+            CommandLine line = parser.parse(options, argv);
+
+            if (line.hasOption('h')){
+                new HelpFormatter().printHelp(getClass().toString(), options);
+                return 0;
+            }
+            // create a context
+            context = new Context();
+            EPerson myEPerson = parseUser(context, line.getOptionValue("e"));
+            if (myEPerson == null){
+                return 1;
+            }
+            inFileName = line.getOptionValue("f");
+            outFileName = outputFileName(line);
+            isVerbose = line.hasOption("v");
+            resume = line.hasOption("R");
+            reindexWorkers = Integer.parseInt(line.getOptionValue("w", "2"));
+            indexFileName = line.getOptionValue("I");
+            String invalid = reindexWorkers < 0 ? "reindex-workers must not be negative"
+                    : line.hasOption("W") && indexFileName == null ? "warm-index needs an index file" : validate(line);
+            if (invalid != null){
+                System.out.println(invalid);
+                return 1;
+            }
+            if (!testFiles()){
+                return 1;
+            }
+            context.setCurrentUser(myEPerson);
+            if (indexFileName != null){
+                index = line.hasOption("W") ? LookupIndex.warm(context, indexFileName) : LookupIndex.open(context, indexFileName);
+            }
+            if (validatesInput(line) && !validateInput(line)){
+                return 1;
+            }
+            checkpoint = new Checkpoint(outFileName);
+            if (resume){
+                if (!checkpoint.load()){
+                    System.out.printf("No checkpoint found for rollback file %s\n", outFileName);
+                    return 1;
+                }
+                if (checkpoint.isComplete()){
+                    System.out.printf("The run recorded in %s has already completed\n", outFileName);
+                    return 0;
+                }
+                if (checkpoint.hasPendingBatch()){
+                    Boolean committed = pendingBatchCommitted(checkpoint.getPendingProbe());
+                    System.out.printf("The batch interrupted at its commit %s\n",
+                            committed == null ? "is applied again" : committed ? "had committed" : "had not committed, its rollback rows are dropped");
+                    checkpoint.resolvePendingBatch(committed);
+                }
+                System.out.printf("Resuming after row %d\n", checkpoint.getRecordNumber());
+                rollback = RollbackWriter.resume(outFileName, checkpoint);
+                // the items changed before the interruption are still waiting to be re-indexed
+                modified = ItemIdSet.read(ItemIdSet.fileFor(outFileName));
+            } else {
+                // a checkpoint left by an earlier run would otherwise be taken for this run's
+                checkpoint.delete();
+                if (writesRollback(line)){
+                    rollback = RollbackWriter.create(outFileName, rollbackHeader());
+                    modified = new ItemIdSet();
+                }
+            }
+            metricsFile = line.getOptionValue("j");
+            metrics = new LauncherMetrics(CsvInput.inputSize(inFileName));
+            metrics.startProgress(Integer.parseInt(line.getOptionValue("i", "60")));
+            process();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println(e);
+            status = 1;
+        } finally
+        {
+            if (rollback != null){
+                try {
+                    rollback.close();
+                } catch (IOException e) {
+                    System.out.println("Could not close rollback file: " + e);
+                    status = 1;
+                }
+            }
+            if (metrics != null){
+                metrics.stopProgress();
+                metrics.printSummary();
+                if (metricsFile != null){
+                    try {
+                        metrics.writeJson(metricsFile);
+                    } catch (IOException e) {
+                        System.out.println("Could not write metrics: " + e);
+                    }
+                }
+            }
+            // everything the run keeps has been committed; in a queue the connection goes back to the pool
+            if (context != null && context.isValid()){
+                context.abort();
+            }
+            if (!queued){
+                DSIndexer.setBatchProcessingMode(false);
+            }
+            if (modified != null){
+                ItemReindexer.reindexAfterRun(modified, outFileName, queued ? 0 : reindexWorkers);
+            }
+            Date endTime = new Date();
+            System.out.println("Started: " + startTime.getTime());
+            System.out.println("Ended: " + endTime.getTime());
+            System.out.println("Elapsed time: " + ((endTime.getTime() - startTime.getTime()) / 1000) + " secs (" + (endTime.getTime() - startTime.getTime()) + " msecs)");
+        }
+
+        return status;
+    }
+
+    // the input, after the checkpointed row on a resumed run
+    protected CsvInput openInput() throws IOException {
+        if (resume){
+            return CsvInput.resume(inFileName, inputCharset(), checkpoint);
+        }
+        return CsvInput.open(inFileName, inputCharset());
+    }
+
+    // checks the whole input before anything is written; the report is only kept when it lists problems
+    private boolean validateInput(CommandLine line) throws Exception {
+        String reportFileName = line.getOptionValue("x", outFileName + ".errors.csv");
+        int threads = Integer.parseInt(line.getOptionValue("V", "4"));
+        if (threads < 1){
+            System.out.println("validation-threads must be at least 1");
+            return false;
+        }
+        ValidationReport report = new ValidationReport(reportFileName);
+        long problems;
+        try {
+            validate(validatorFactory(), threads, report);
+            validateAcrossRanges(report);
+            problems = report.getProblems();
+        } finally {
+            report.close();
+        }
+        if (problems == 0){
+            new File(reportFileName).delete();
+            return true;
+        }
+        System.out.printf("Nothing was changed; the %d problems found are listed in %s\n", problems, reportFileName);
+        return false;
+    }
+
+    private <R extends LauncherRow> long validate(RowValidatorFactory<R> factory, int threads, ValidationReport report) throws Exception {
+        return new InputValidator<R>(factory, inFileName, inputCharset(), threads).validate(report);
+    }
+
+    // a context of its own for a worker thread, acting as the launcher's user
+    protected Context newWorkerContext() throws SQLException {
+        Context workerContext = new Context();
+        workerContext.setCurrentUser(context.getCurrentUser());
+        return workerContext;
+    }
+
+    private static EPerson parseUser(Context c, String eperson) throws SQLException, AuthorizeException {
+        // find the EPerson, assign to context
+        EPerson myEPerson =null;
+        if (eperson.indexOf('@') != -1)
+        {
+            // @ sign, must be an email
+            myEPerson = EPerson.findByEmail(c, eperson);
+        }
+        else
+        {
+            myEPerson = EPerson.find(c, Integer.parseInt(eperson));
+        }
+
+        if (myEPerson == null)
+        {
+            System.out.println("Error, eperson cannot be found: " + eperson);
+        }
+        return myEPerson;
+    }
+
+    private boolean testFiles(){
+        boolean ok = true;
+        if (!(new File(inFileName).exists())){
+            ok = false;
+            System.out.printf("Input csv %s not found\n", inFileName);
+        }
+        try{
+            new File(outFileName).createNewFile();
+        }
+        catch(IOException e){
+            ok = false;
+            System.out.printf("Output csv %s not found\n", outFileName);
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,229 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency figures of a launcher run.
+ * Workers time each phase (lookups, writes, commits, handle resolution,
+ * rollback writes) and count outcomes per row, and the queues between
+ * threads report their depth at every hand-off. A progress line with
+ * rows/sec and an ETA is printed periodically, and the totals are
+ * printed, and optionally written as json, at the end of the run.
+ */
+public class LauncherMetrics {
+    public static final String FIND = "find";
+    public static final String UPDATE = "update";
+    public static final String CREATE = "create";
+    public static final String DELETE = "delete";
+    public static final String COMMIT = "commit";
+    public static final String HANDLE_RESOLUTION = "handle_resolution";
+    public static final String ROLLBACK_WRITE = "rollback_write";
+    public static final String ROWS = "rows";
+    public static final String UPDATED = "updated";
+    public static final String CREATED = "created";
+    public static final String DELETED = "deleted";
+    public static final String SKIPPED = "skipped";
+    public static final String MISSING = "missing";
+    public static final String FAILED = "failed";
+
+    private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentSkipListMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentMap<String, QueueDepth> queues = new ConcurrentSkipListMap<String, QueueDepth>();
+    private final long inputSize;
+    private final long startNanos = System.nanoTime();
+    private volatile long inputPosition = 0;
+    private ScheduledExecutorService progress;
+
+    // inputSize is the length of the input file, used to estimate the remaining time
+    public LauncherMetrics(long inputSize) {
+        this.inputSize = inputSize;
+    }
+
+    // records the time since start, a System.nanoTime() taken when the phase began
+    public void record(String phase, long start) {
+        LatencyHistogram histogram = phases.get(phase);
+        if (histogram == null) {
+            phases.putIfAbsent(phase, new LatencyHistogram());
+            histogram = phases.get(phase);
+        }
+        histogram.record(System.nanoTime() - start);
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        AtomicLong value = counters.get(counter);
+        if (value == null) {
+            counters.putIfAbsent(counter, new AtomicLong());
+            value = counters.get(counter);
+        }
+        value.addAndGet(delta);
+    }
+
+    public long get(String counter) {
+        AtomicLong value = counters.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    // samples the number of entries waiting in a queue, taken right after an entry was added
+    public void recordQueueDepth(String queue, int depth) {
+        QueueDepth samples = queues.get(queue);
+        if (samples == null) {
+            queues.putIfAbsent(queue, new QueueDepth());
+            samples = queues.get(queue);
+        }
+        samples.record(depth);
+    }
+
+    // byte offset the input has been read to, comparable with inputSize; negative when it isn't known
+    public void setInputPosition(long position) {
+        inputPosition = position;
+    }
+
+    public synchronized void startProgress(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        progress = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "launcher-progress");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        progress.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                printProgress();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopProgress() {
+        if (progress != null) {
+            progress.shutdownNow();
+            progress = null;
+        }
+    }
+
+    void printProgress() {
+        double elapsed = elapsedSeconds();
+        long rows = get(ROWS);
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("Progress: %d rows, %.1f rows/sec", rows, elapsed > 0 ? rows / elapsed : 0));
+        if (inputSize > 0 && inputPosition > 0) {
+            double done = Math.min(1.0, (double) inputPosition / inputSize);
+            line.append(String.format(", %.1f%% of input, ETA %s", done * 100, formatSeconds((long) (elapsed * (1 - done) / done))));
+        }
+        for (Map.Entry<String, QueueDepth> queue : queues.entrySet()) {
+            line.append(String.format(", %s %d", queue.getKey(), queue.getValue().last));
+        }
+        System.out.println(line);
+    }
+
+    public void printSummary() {
+        double elapsed = elapsedSeconds();
+        System.out.printf("Rows: %d in %.1f secs (%.1f rows/sec)\n", get(ROWS), elapsed, elapsed > 0 ? get(ROWS) / elapsed : 0);
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            if (!counter.getKey().equals(ROWS)) {
+                System.out.printf("  %s: %d\n", counter.getKey(), counter.getValue().get());
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> phase : phases.entrySet()) {
+            LatencyHistogram histogram = phase.getValue();
+            System.out.printf("  %s: %d calls, p50 %d us, p99 %d us, max %d us, total %d ms\n", phase.getKey(),
+                    histogram.getCount(), histogram.percentile(0.5), histogram.percentile(0.99),
+                    histogram.getMaxMicros(), histogram.getTotalMicros() / 1000);
+        }
+        for (Map.Entry<String, QueueDepth> queue : queues.entrySet()) {
+            QueueDepth depth = queue.getValue();
+            System.out.printf("  %s: mean depth %.2f, max %d over %d hand-offs\n", queue.getKey(), depth.mean(), depth.max.get(), depth.samples.get());
+        }
+    }
+
+    public void writeJson(String fileName) throws IOException {
+        double elapsed = elapsedSeconds();
+        PrintWriter out = new PrintWriter(new File(fileName), "UTF-8");
+        try {
+            out.println("{");
+            out.printf("  \"elapsed_seconds\": %.3f,\n", elapsed);
+            out.printf("  \"rows_per_second\": %.1f,\n", elapsed > 0 ? get(ROWS) / elapsed : 0);
+            out.println("  \"counters\": {");
+            String separator = "";
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                out.printf("%s    \"%s\": %d", separator, counter.getKey(), counter.getValue().get());
+                separator = ",\n";
+            }
+            out.println();
+            out.println("  },");
+            out.println("  \"phases\": {");
+            separator = "";
+            for (Map.Entry<String, LatencyHistogram> phase : phases.entrySet()) {
+                LatencyHistogram histogram = phase.getValue();
+                out.printf("%s    \"%s\": {\"count\": %d, \"p50_us\": %d, \"p99_us\": %d, \"max_us\": %d, \"total_us\": %d}",
+                        separator, phase.getKey(), histogram.getCount(), histogram.percentile(0.5),
+                        histogram.percentile(0.99), histogram.getMaxMicros(), histogram.getTotalMicros());
+                separator = ",\n";
+            }
+            out.println();
+            out.println("  },");
+            out.println("  \"queues\": {");
+            separator = "";
+            for (Map.Entry<String, QueueDepth> queue : queues.entrySet()) {
+                QueueDepth depth = queue.getValue();
+                out.printf("%s    \"%s\": {\"samples\": %d, \"mean_depth\": %.2f, \"max_depth\": %d}",
+                        separator, queue.getKey(), depth.samples.get(), depth.mean(), depth.max.get());
+                separator = ",\n";
+            }
+            out.println();
+            out.println("  }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    private static String formatSeconds(long seconds) {
+        return String.format("%dh%02dm%02ds", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    // a producer that keeps finding its queue full is waiting on the stage after it
+    private static class QueueDepth {
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private volatile int last = 0;
+
+        private void record(int depth) {
+            samples.incrementAndGet();
+            total.addAndGet(depth);
+            last = depth;
+            long previous = max.get();
+            while (depth > previous && !max.compareAndSet(previous, depth)) {
+                previous = max.get();
+            }
+        }
+
+        private double mean() {
+            long count = samples.get();
+            return count == 0 ? 0 : (double) total.get() / count;
+        }
+    }
+}
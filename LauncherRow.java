@@ -0,0 +1,15 @@
+package uiuc.edu.dspace.app.launcher;
+
+/**
+ * A parsed input row, as BatchRunner hands it to a RowOperation.
+ * The position is what the checkpoint records once the row's batch
+ * has committed.
+ */
+public interface LauncherRow {
+
+    // record number of the row in the whole input, also after a resume
+    long getRecordNumber();
+
+    // where the row starts in the input
+    long getCharacterPosition();
+}
@@ -0,0 +1,403 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local, memory mapped index of the lookups the launchers repeat on
+ * every run: handle to type, id and owning collection, and
+ * metadata_value_id to item_id. Built in one bulk
+ * pass with --warm-index (or on its own with this class's main) and
+ * stamped with a token of the repository's state; an index whose token
+ * no longer matches is ignored, so the launchers fall back to the
+ * database. Only absolute reads are made, so one index can be shared
+ * between worker threads.
+ *
+ * The file is a header with the token, the handle entries sorted by
+ * handle, the handle strings, and one item_id per metadata_value_id up
+ * to the largest one, zero where there is no item value. A value never
+ * changes items, and any value created or deleted changes the token, so
+ * runs that only update values leave the index in date.
+ */
+public class LookupIndex {
+    private static final int MAGIC = 0x4C494458;
+    private static final int VERSION = 2;
+    // name offset, resource type, resource id, owning collection name offset
+    private static final int HANDLE_ENTRY_SIZE = 16;
+    private static final int VALUE_ENTRY_SIZE = 4;
+    // metadata values per mapped region of the item ids, 128MB
+    private static final int VALUE_REGION_SHIFT = 25;
+    private static final int FETCH_SIZE = 10000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // each query's columns go into the token; a move updates the item's last_modified
+    private static final String[] TOKEN_QUERIES = {
+            "SELECT max(last_modified) FROM item",
+            "SELECT max(handle_id), count(*) FROM handle",
+            "SELECT max(metadata_value_id), count(*) FROM metadatavalue"
+    };
+    private static final String HANDLE_QUERY =
+            "SELECT h.handle, h.resource_type_id, h.resource_id, ch.handle AS owning_collection_handle FROM handle h " +
+            "LEFT JOIN item i ON h.resource_type_id = " + Constants.ITEM + " AND i.item_id = h.resource_id " +
+            "LEFT JOIN handle ch ON ch.resource_type_id = " + Constants.COLLECTION + " AND ch.resource_id = i.owning_collection " +
+            "WHERE h.resource_id IS NOT NULL";
+    private static final String VALUE_QUERY =
+            "SELECT metadata_value_id, resource_id FROM metadatavalue " +
+            "WHERE resource_type_id = " + Constants.ITEM + " AND metadata_value_id <= ? ORDER BY metadata_value_id";
+    private static final String MAX_VALUE_QUERY = "SELECT max(metadata_value_id) FROM metadatavalue";
+
+    private final ByteBuffer handles;
+    private final int handleCount;
+    private final int entriesStart;
+    private final int namesStart;
+    private final ByteBuffer[] values;
+    private final int maxValueId;
+
+    private LookupIndex(ByteBuffer handles, int handleCount, int entriesStart, int namesStart, ByteBuffer[] values, int maxValueId) {
+        this.handles = handles;
+        this.handleCount = handleCount;
+        this.entriesStart = entriesStart;
+        this.namesStart = namesStart;
+        this.values = values;
+        this.maxValueId = maxValueId;
+    }
+
+    /**
+     * What a handle resolves to.
+     */
+    public static class HandleEntry {
+        public final int type;
+        public final int id;
+        // null for anything but an item with an owning collection
+        public final String owningCollectionHandle;
+
+        HandleEntry(int type, int id, String owningCollectionHandle) {
+            this.type = type;
+            this.id = id;
+            this.owningCollectionHandle = owningCollectionHandle;
+        }
+    }
+
+    public static void main(String[] argv) {
+        Context c = null;
+        try {
+            Options options = new Options();
+            options.addOption("f", "file", true, "index file to build, or rebuild if it is out of date");
+            options.addOption("h", "help", false, "help");
+            CommandLine line = new PosixParser().parse(options, argv);
+            if (line.hasOption('h') || !line.hasOption('f')) {
+                new HelpFormatter().printHelp(LookupIndex.class.toString(), options);
+                System.exit(line.hasOption('h') ? 0 : 1);
+            }
+            c = new Context();
+            warm(c, line.getOptionValue('f'));
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println(e);
+            System.exit(1);
+        } finally {
+            // the index is built from reads only
+            if (c != null) {
+                c.abort();
+            }
+        }
+    }
+
+    // opens the index, building it first if it is missing or out of date
+    public static LookupIndex warm(Context c, String fileName) throws SQLException, IOException {
+        return warm(c.getDBConnection(), fileName);
+    }
+
+    static LookupIndex warm(Connection connection, String fileName) throws SQLException, IOException {
+        String token = repositoryToken(connection);
+        LookupIndex index = open(fileName, token);
+        if (index == null) {
+            build(connection, fileName, token);
+            index = open(fileName, token);
+        }
+        return index;
+    }
+
+    // opens the index, or returns null if it is missing or out of date
+    public static LookupIndex open(Context c, String fileName) throws SQLException, IOException {
+        return open(c.getDBConnection(), fileName);
+    }
+
+    static LookupIndex open(Connection connection, String fileName) throws SQLException, IOException {
+        if (!new File(fileName).exists()) {
+            System.out.printf("Lookup index %s not found, using the database; run with --warm-index to build it\n", fileName);
+            return null;
+        }
+        LookupIndex index = open(fileName, repositoryToken(connection));
+        if (index == null) {
+            System.out.printf("Lookup index %s is out of date, using the database; run with --warm-index to rebuild it\n", fileName);
+        }
+        return index;
+    }
+
+    // returns what the handle resolves to, or null if it doesn't
+    public HandleEntry findHandle(String handle) {
+        byte[] key = handle.getBytes(UTF8);
+        int low = 0;
+        int high = handleCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = entriesStart + mid * HANDLE_ENTRY_SIZE;
+            int cmp = compareName(handles.getInt(entry), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                int owner = handles.getInt(entry + 12);
+                return new HandleEntry(handles.getInt(entry + 4), handles.getInt(entry + 8), owner < 0 ? null : name(owner));
+            }
+        }
+        return null;
+    }
+
+    // returns the item the value belongs to, or -1 if it isn't an item value
+    public int itemOf(int metadataValueId) {
+        if (metadataValueId < 0 || metadataValueId > maxValueId) {
+            return -1;
+        }
+        ByteBuffer region = values[metadataValueId >>> VALUE_REGION_SHIFT];
+        int itemId = region.getInt((metadataValueId & ((1 << VALUE_REGION_SHIFT) - 1)) * VALUE_ENTRY_SIZE);
+        return itemId == 0 ? -1 : itemId;
+    }
+
+    // compares the stored name with the key as unsigned bytes, the order the entries are sorted in
+    private int compareName(int offset, byte[] key) {
+        int position = namesStart + offset;
+        int length = handles.getShort(position) & 0xFFFF;
+        position += 2;
+        for (int i = 0; i < length && i < key.length; i++) {
+            int cmp = (handles.get(position + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String name(int offset) {
+        int position = namesStart + offset;
+        byte[] name = new byte[handles.getShort(position) & 0xFFFF];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = handles.get(position + 2 + i);
+        }
+        return new String(name, UTF8);
+    }
+
+    // returns null if the file's token isn't the given one
+    private static LookupIndex open(String fileName, String token) throws IOException {
+        if (!new File(fileName).exists()) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                return null;
+            }
+            int handleCount = file.readInt();
+            int namesSize = file.readInt();
+            int maxValueId = file.readInt();
+            if (!file.readUTF().equals(token)) {
+                return null;
+            }
+            long entriesStart = file.getFilePointer();
+            long namesStart = entriesStart + (long) handleCount * HANDLE_ENTRY_SIZE;
+            long valuesStart = namesStart + namesSize;
+            if (valuesStart > Integer.MAX_VALUE) {
+                throw new IOException("Lookup index " + fileName + " holds too many handles to be mapped");
+            }
+            FileChannel channel = file.getChannel();
+            ByteBuffer handles = channel.map(FileChannel.MapMode.READ_ONLY, 0, valuesStart);
+            long valueCount = maxValueId + 1L;
+            ByteBuffer[] values = new ByteBuffer[(int) ((valueCount + (1 << VALUE_REGION_SHIFT) - 1) >>> VALUE_REGION_SHIFT)];
+            for (int i = 0; i < values.length; i++) {
+                long first = (long) i << VALUE_REGION_SHIFT;
+                long size = Math.min(1L << VALUE_REGION_SHIFT, valueCount - first) * VALUE_ENTRY_SIZE;
+                values[i] = channel.map(FileChannel.MapMode.READ_ONLY, valuesStart + first * VALUE_ENTRY_SIZE, size);
+            }
+            return new LookupIndex(handles, handleCount, (int) entriesStart, (int) namesStart, values, maxValueId);
+        } finally {
+            // the mappings outlive the file
+            file.close();
+        }
+    }
+
+    // written to a temporary file and moved into place, so a reader never sees half an index
+    private static void build(Connection connection, String fileName, String token) throws SQLException, IOException {
+        long start = System.nanoTime();
+        List<HandleRow> rows = readHandles(connection);
+        Collections.sort(rows);
+        Map<String, Integer> offsets = new HashMap<String, Integer>();
+        int namesSize = 0;
+        for (HandleRow row : rows) {
+            offsets.put(row.handle, namesSize);
+            namesSize += 2 + row.name.length;
+        }
+        int maxValueId = maxValueId(connection);
+        File temp = new File(fileName + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        long values;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows.size());
+            out.writeInt(namesSize);
+            out.writeInt(maxValueId);
+            out.writeUTF(token);
+            for (HandleRow row : rows) {
+                Integer owner = row.owningCollectionHandle == null ? null : offsets.get(row.owningCollectionHandle);
+                out.writeInt(offsets.get(row.handle));
+                out.writeInt(row.type);
+                out.writeInt(row.id);
+                out.writeInt(owner == null ? -1 : owner);
+            }
+            for (HandleRow row : rows) {
+                out.writeShort(row.name.length);
+                out.write(row.name);
+            }
+            values = writeValues(connection, maxValueId, out);
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), new File(fileName).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.printf("Built lookup index %s with %d handles and %d metadata values in %.1f secs\n", fileName, rows.size(),
+                values, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static List<HandleRow> readHandles(Connection connection) throws SQLException {
+        List<HandleRow> rows = new ArrayList<HandleRow>();
+        Statement statement = connection.createStatement();
+        try {
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet result = statement.executeQuery(HANDLE_QUERY);
+            while (result.next()) {
+                rows.add(new HandleRow(result.getString(1), result.getInt(2), result.getInt(3), result.getString(4)));
+            }
+            result.close();
+        } finally {
+            statement.close();
+        }
+        return rows;
+    }
+
+    private static int maxValueId(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery(MAX_VALUE_QUERY);
+            result.next();
+            // max() of no rows is null, read as 0
+            return result.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    // writes an item id for every id up to maxValueId, zeros for the gaps; returns the number of values
+    private static long writeValues(Connection connection, int maxValueId, DataOutputStream out) throws SQLException, IOException {
+        long count = 0;
+        int next = 0;
+        PreparedStatement statement = connection.prepareStatement(VALUE_QUERY);
+        try {
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setInt(1, maxValueId);
+            ResultSet result = statement.executeQuery();
+            while (result.next()) {
+                int id = result.getInt(1);
+                for (; next < id; next++) {
+                    out.writeInt(0);
+                }
+                out.writeInt(result.getInt(2));
+                next++;
+                count++;
+            }
+            result.close();
+        } finally {
+            statement.close();
+        }
+        for (; next <= maxValueId; next++) {
+            out.writeInt(0);
+        }
+        return count;
+    }
+
+    private static class HandleRow implements Comparable<HandleRow> {
+        final String handle;
+        final byte[] name;
+        final int type;
+        final int id;
+        final String owningCollectionHandle;
+
+        HandleRow(String handle, int type, int id, String owningCollectionHandle) {
+            this.handle = handle;
+            this.name = handle.getBytes(UTF8);
+            this.type = type;
+            this.id = id;
+            this.owningCollectionHandle = owningCollectionHandle;
+        }
+
+        // unsigned bytes, the order findHandle searches in
+        @Override
+        public int compareTo(HandleRow other) {
+            for (int i = 0; i < name.length && i < other.name.length; i++) {
+                int cmp = (name[i] & 0xFF) - (other.name[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return name.length - other.name.length;
+        }
+    }
+
+    private static String repositoryToken(Connection connection) throws SQLException {
+        StringBuilder token = new StringBuilder();
+        Statement statement = connection.createStatement();
+        try {
+            for (String query : TOKEN_QUERIES) {
+                ResultSet result = statement.executeQuery(query);
+                try {
+                    result.next();
+                    ResultSetMetaData columns = result.getMetaData();
+                    for (int i = 1; i <= columns.getColumnCount(); i++) {
+                        token.append(result.getString(i)).append('|');
+                    }
+                } finally {
+                    result.close();
+                }
+            }
+        } finally {
+            statement.close();
+        }
+        return token.toString();
+    }
+}
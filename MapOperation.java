@@ -0,0 +1,37 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.dspace.app.xmlui.aspect.administrative.FlowMapperUtils;
+import org.dspace.core.Context;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+
+import java.util.List;
+
+/**
+ * Maps items into a collection in addition to their owning collection.
+ */
+class MapOperation extends MappingOperation {
+
+    MapOperation(Context context, HandleLookup lookup, LauncherMetrics metrics, int groupSize, boolean ownsContext) {
+        super(context, lookup, metrics, groupSize, ownsContext);
+    }
+
+    @Override
+    String modeName() {
+        return "map";
+    }
+
+    // an item is already in its owning collection and any collection it was mapped into
+    @Override
+    boolean stage(State state, int itemId, int collectionId, String collectionHandle) {
+        if (state.isMapped(itemId, collectionId)) {
+            return false;
+        }
+        state.setMapped(itemId, collectionId, true);
+        return true;
+    }
+
+    @Override
+    void applyGroup(Context context, int collectionId, List<String> itemIds) throws Exception {
+        FlowMapperUtils.processMapItems(context, collectionId, itemIds.toArray(new String[itemIds.size()]));
+    }
+}
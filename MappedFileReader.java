@@ -0,0 +1,91 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads a byte range of a file through memory mapped regions, decoding
+ * it with an explicit decoder. Regions are mapped REGION_SIZE bytes at a
+ * time, so files well past 2GB can be read; a multi-byte character cut
+ * by a region's end is carried into the next region. Malformed input is
+ * replaced, as InputStreamReader does.
+ */
+class MappedFileReader extends Reader {
+    static final int REGION_SIZE = 64 << 20;
+    private static final int CHAR_BUFFER_SIZE = 1 << 16;
+    // longest character sequence of the charsets we read, the most a region can end on undecoded
+    private static final int MAX_SEQUENCE = 4;
+    private final FileChannel channel;
+    private final long end;
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private MappedByteBuffer region;
+    private long regionStart;
+    // set once the current region runs to the end of the range
+    private boolean lastRegion = false;
+    private boolean done = false;
+
+    MappedFileReader(String fileName, Charset charset, long start, long end) throws IOException {
+        this.channel = new RandomAccessFile(fileName, "r").getChannel();
+        this.end = end;
+        this.regionStart = start;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars.flip();
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int read = Math.min(length, chars.remaining());
+        chars.get(buffer, offset, read);
+        return read;
+    }
+
+    private boolean fill() throws IOException {
+        chars.clear();
+        while (chars.position() == 0 && !done) {
+            if (region == null || (!lastRegion && region.remaining() < MAX_SEQUENCE)) {
+                map();
+            }
+            if (decoder.decode(region, chars, lastRegion).isUnderflow() && lastRegion) {
+                decoder.flush(chars);
+                done = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    // byte offset in the file of the first byte not yet decoded
+    long position() {
+        return region == null ? regionStart : regionStart + region.position();
+    }
+
+    // maps the next region from the first byte not yet decoded
+    private void map() throws IOException {
+        long next = region == null ? regionStart : regionStart + region.position();
+        long size = Math.min(REGION_SIZE, end - next);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, next, size);
+        regionStart = next;
+        lastRegion = next + size >= end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
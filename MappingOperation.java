@@ -0,0 +1,216 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.dspace.core.Context;
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.PendingChanges;
+import uiuc.edu.dspace.app.launcher.RowOperation;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BatchItemMapper's row operation; MapOperation, MoveOperation and
+ * UnmapOperation supply the DSpace call for their mode.
+ * Prefetch resolves the handles of a window, apply stages each row's
+ * item for its collection, and commit hands the staged items to the
+ * mode's call grouped by collection. The DSpace calls commit on their
+ * own, so a batch can't be rolled back.
+ *
+ * A row is only staged, and given a rollback row, if it changes the
+ * item: the window's mappings and owning collections are read on the
+ * writer when it applies the window's first row, after every window
+ * before it has been applied, so the prior state is never stale.
+ */
+abstract class MappingOperation implements RowOperation<MappingRow, MappingOperation.Prefetch> {
+    private final Context context;
+    private final HandleResolver handles;
+    private final LauncherMetrics metrics;
+    private final int groupSize;
+    // false for the launcher's own context
+    private final boolean ownsContext;
+    // (item id, collection id) pairs of the open batch, in input order
+    private final List<int[]> staged = new ArrayList<int[]>();
+
+    MappingOperation(Context context, HandleLookup lookup, LauncherMetrics metrics, int groupSize, boolean ownsContext) {
+        this.context = context;
+        this.handles = new HandleResolver(lookup);
+        this.metrics = metrics;
+        this.groupSize = groupSize;
+        this.ownsContext = ownsContext;
+    }
+
+    // the mode as written to the rollback file
+    abstract String modeName();
+
+    abstract void applyGroup(Context context, int collectionId, List<String> itemIds) throws Exception;
+
+    // whether the row changes the item; a change is recorded in the state so later rows of the window see it
+    abstract boolean stage(State state, int itemId, int collectionId, String collectionHandle);
+
+    // resolves every handle of the window, so a handle that doesn't resolve stops the run before the window is applied
+    @Override
+    public Prefetch prefetch(List<List<MappingRow>> window) throws Exception {
+        List<MappingRow> rows = new ArrayList<MappingRow>();
+        for (List<MappingRow> batch : window) {
+            rows.addAll(batch);
+        }
+        long start = System.nanoTime();
+        Prefetch prefetch = new Prefetch(handles.resolveItems(rows));
+        for (MappingRow row : rows) {
+            if (!prefetch.items.containsKey(row.itemHandle)) {
+                throw new IllegalArgumentException("Handle " + row.itemHandle + " does not resolve to item.");
+            }
+            if (!prefetch.collectionIds.containsKey(row.collectionHandle)) {
+                int collectionId = handles.getCollectionId(row.collectionHandle);
+                if (collectionId == -1) {
+                    throw new IllegalArgumentException("Handle " + row.collectionHandle + " does not resolve to collection.");
+                }
+                prefetch.collectionIds.put(row.collectionHandle, collectionId);
+            }
+        }
+        metrics.record(LauncherMetrics.HANDLE_RESOLUTION, start);
+        return prefetch;
+    }
+
+    @Override
+    public String apply(MappingRow row, Prefetch prefetch, PendingChanges changes) throws SQLException {
+        if (prefetch.state == null) {
+            prefetch.state = loadState(prefetch);
+        }
+        ResolvedItem item = prefetch.items.get(row.itemHandle);
+        int collectionId = prefetch.collectionIds.get(row.collectionHandle);
+        String owner = prefetch.state.owners.get(item.id);
+        if (!stage(prefetch.state, item.id, collectionId, row.collectionHandle)) {
+            return LauncherMetrics.SKIPPED;
+        }
+        // mode and collection let RollbackReplayer undo maps and unmaps as well as moves
+        changes.rollback(item.handle, owner != null ? owner : BatchItemMapper.NO_OWNING_COLLECTION, modeName(), row.collectionHandle);
+        changes.changedItem(item.id);
+        staged.add(new int[]{item.id, collectionId});
+        return modeName() + "_items";
+    }
+
+    private State loadState(Prefetch prefetch) throws SQLException {
+        Set<Integer> itemIds = new HashSet<Integer>();
+        for (ResolvedItem item : prefetch.items.values()) {
+            itemIds.add(item.id);
+        }
+        long start = System.nanoTime();
+        State state = new State(handles.getMappings(itemIds), handles.getOwners(itemIds));
+        metrics.record(LauncherMetrics.HANDLE_RESOLUTION, start);
+        return state;
+    }
+
+    // applied in rounds that hold each item at most once, so repeated rows for an item keep their order
+    @Override
+    public void commit(Set<Integer> changedItemIds) throws Exception {
+        List<int[]> remaining = new ArrayList<int[]>(staged);
+        staged.clear();
+        while (!remaining.isEmpty()) {
+            // item ids by destination collection id, in first-seen order
+            Map<Integer, List<String>> groups = new LinkedHashMap<Integer, List<String>>();
+            Set<Integer> items = new HashSet<Integer>();
+            List<int[]> later = new ArrayList<int[]>();
+            for (int[] pair : remaining) {
+                if (!items.add(pair[0])) {
+                    later.add(pair);
+                    continue;
+                }
+                List<String> group = groups.get(pair[1]);
+                if (group == null) {
+                    group = new ArrayList<String>();
+                    groups.put(pair[1], group);
+                }
+                group.add(String.valueOf(pair[0]));
+            }
+            for (Map.Entry<Integer, List<String>> group : groups.entrySet()) {
+                List<String> itemIds = group.getValue();
+                for (int from = 0; from < itemIds.size(); from += groupSize) {
+                    long start = System.nanoTime();
+                    applyGroup(context, group.getKey(), itemIds.subList(from, Math.min(from + groupSize, itemIds.size())));
+                    metrics.record(modeName(), start);
+                }
+            }
+            remaining = later;
+        }
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    // nothing has reached DSpace before commit, so the staged rows are all there is to drop
+    @Override
+    public void rollback() {
+        staged.clear();
+    }
+
+    @Override
+    public void close(boolean succeeded) throws SQLException {
+        handles.addTo(metrics);
+        if (ownsContext) {
+            if (succeeded) {
+                context.complete();
+            } else {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * The resolved handles of a window.
+     */
+    static class Prefetch {
+        private final Map<String, ResolvedItem> items;
+        private final Map<String, Integer> collectionIds = new HashMap<String, Integer>();
+        // loaded by the writer, see loadState
+        private State state;
+
+        private Prefetch(Map<String, ResolvedItem> items) {
+            this.items = items;
+        }
+    }
+
+    /**
+     * The collections the items of a window are in, as the rows staged
+     * so far leave them.
+     */
+    static class State {
+        private final Set<Long> mappings;
+        // owning collection handles by item id, null for none
+        private final Map<Integer, String> owners;
+
+        State(Set<Long> mappings, Map<Integer, String> owners) {
+            this.mappings = mappings;
+            this.owners = owners;
+        }
+
+        boolean isMapped(int itemId, int collectionId) {
+            return mappings.contains(HandleResolver.mappingKey(itemId, collectionId));
+        }
+
+        void setMapped(int itemId, int collectionId, boolean mapped) {
+            if (mapped) {
+                mappings.add(HandleResolver.mappingKey(itemId, collectionId));
+            } else {
+                mappings.remove(HandleResolver.mappingKey(itemId, collectionId));
+            }
+        }
+
+        String getOwner(int itemId) {
+            return owners.get(itemId);
+        }
+
+        void setOwner(int itemId, String collectionHandle) {
+            owners.put(itemId, collectionHandle);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.apache.commons.csv.CSVRecord;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherRow;
+
+/**
+ * One item_handle,collection_handle row of a BatchItemMapper input file.
+ */
+class MappingRow implements LauncherRow {
+    final String itemHandle;
+    final String collectionHandle;
+    // where the row sits in the input file, for checkpoints
+    final long recordNumber;
+    final long characterPosition;
+
+    MappingRow(String itemHandle, String collectionHandle, long recordNumber, long characterPosition) {
+        this.itemHandle = itemHandle;
+        this.collectionHandle = collectionHandle;
+        this.recordNumber = recordNumber;
+        this.characterPosition = characterPosition;
+    }
+
+    static MappingRow parse(CSVRecord record, CsvInput input) {
+        return new MappingRow(record.get("item_handle"), record.get("collection_handle"),
+                input.getRecordNumber(record), input.getCharacterPosition(record));
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public long getCharacterPosition() {
+        return characterPosition;
+    }
+}
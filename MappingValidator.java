@@ -0,0 +1,106 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.dspace.core.Context;
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LookupIndex;
+import uiuc.edu.dspace.app.launcher.RowValidator;
+import uiuc.edu.dspace.app.launcher.ValidationReport;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-flight checks of a BatchItemMapper input range: item handles
+ * resolve to items and collection handles to collections, a map or
+ * unmap doesn't target the item's owning collection, and no item is
+ * mapped twice or moved to two collections. Item handles are resolved
+ * a chunk at a time, from the lookup index when the run has one. The
+ * validators of all ranges mark the items they see in one RepeatedRows;
+ * the repeated ones are reported by checkRepeated in a second pass that
+ * reads the input in order, so the row kept as the first is the one
+ * with the lowest record number.
+ */
+class MappingValidator implements RowValidator<MappingRow> {
+    private final Context context;
+    private final CsvInput input;
+    private final HandleResolver handles;
+    private final String modeName;
+    private final RepeatedRows repeated;
+    // the first row of each repeated item, or item and collection, in the ordered pass
+    private final Map<Long, MappingRow> firstRows = new HashMap<Long, MappingRow>();
+
+    // index is null when the run has none
+    MappingValidator(Context context, CsvInput input, String modeName, RepeatedRows repeated, LookupIndex index) {
+        this.context = context;
+        this.input = input;
+        this.handles = new HandleResolver(index != null ? new IndexedHandleLookup(index, new DSpaceHandleLookup(context)) : new DSpaceHandleLookup(context));
+        this.modeName = modeName;
+        this.repeated = repeated;
+    }
+
+    @Override
+    public MappingRow parse(CSVRecord record) {
+        return MappingRow.parse(record, input);
+    }
+
+    @Override
+    public void check(List<MappingRow> rows, ValidationReport report) throws SQLException, IOException {
+        Map<String, ResolvedItem> items = handles.resolveItems(rows);
+        for (MappingRow row : rows) {
+            ResolvedItem item = items.get(row.itemHandle);
+            if (item == null) {
+                report.problem(row.recordNumber, "item_handle", row.itemHandle, "does not resolve to an item");
+            }
+            int collectionId = handles.getCollectionId(row.collectionHandle);
+            if (collectionId == -1) {
+                report.problem(row.recordNumber, "collection_handle", row.collectionHandle, "does not resolve to a collection");
+            }
+            if (item != null && row.collectionHandle.equals(item.owningCollectionHandle) && !modeName.equals("move")) {
+                report.problem(row.recordNumber, "collection_handle", row.collectionHandle, "is the item's owning collection, which can't be "
+                        + (modeName.equals("map") ? "mapped" : "unmapped"));
+            }
+            if (item != null && collectionId != -1) {
+                repeated.mark(item.id, collectionId);
+            }
+        }
+    }
+
+    // the ordered pass, given the chunks of the whole input in order
+    void checkRepeated(List<MappingRow> rows, ValidationReport report) throws SQLException, IOException {
+        Map<String, ResolvedItem> items = handles.resolveItems(rows);
+        for (MappingRow row : rows) {
+            ResolvedItem item = items.get(row.itemHandle);
+            int collectionId = handles.getCollectionId(row.collectionHandle);
+            if (item == null || collectionId == -1 || !repeated.isRepeated(item.id, collectionId)) {
+                continue;
+            }
+            long key = modeName.equals("move") ? item.id : HandleResolver.mappingKey(item.id, collectionId);
+            MappingRow first = firstRows.get(key);
+            if (first == null) {
+                firstRows.put(key, row);
+            } else {
+                reportRepeated(first, row, report);
+            }
+        }
+    }
+
+    private void reportRepeated(MappingRow first, MappingRow row, ValidationReport report) throws IOException {
+        if (first.collectionHandle.equals(row.collectionHandle)) {
+            report.problem(row.recordNumber, "item_handle", row.itemHandle, "repeats row " + first.recordNumber);
+        } else {
+            report.problem(row.recordNumber, "collection_handle", row.collectionHandle, "conflicts with row " + first.recordNumber
+                    + ", which moves the item to " + first.collectionHandle);
+        }
+    }
+
+    // the validator only reads
+    @Override
+    public void close() {
+        context.abort();
+    }
+}
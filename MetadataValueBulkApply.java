@@ -0,0 +1,230 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.apache.commons.csv.CSVRecord;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.RollbackWriter;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Set based apply for MetadataValueUpdater's --bulk mode.
+ * Streams the csv into a temporary table, captures the current values
+ * of every row that changes something with one INSERT ... SELECT, writes
+ * those to the rollback file, then applies all updates and deletes with
+ * one UPDATE ... FROM and one DELETE ... USING. Everything runs in the
+ * caller's transaction, which the caller commits together with the
+ * MODIFY_METADATA events for the returned item ids, and only then adds
+ * the returned counts to the run's metrics.
+ *
+ * Only needs a JDBC connection to a PostgreSQL database with a DSpace 5
+ * metadatavalue table, so it can be run against a local database.
+ * Rows without a metadata_value_id are not supported; when an id appears
+ * on several rows, its last row wins.
+ */
+class MetadataValueBulkApply {
+    // rows sent to the staging table per jdbc batch
+    static final int INSERT_BATCH_SIZE = 1000;
+    static final String STAGE = "stage";
+    private static final String CREATE_STAGE = "CREATE TEMPORARY TABLE bulk_stage (seq bigint NOT NULL, "
+            + "metadata_value_id integer NOT NULL, text_value text NOT NULL, raw_text_value text, metadata_field_id integer) "
+            + "ON COMMIT DROP";
+    private static final String INSERT_STAGE = "INSERT INTO bulk_stage VALUES (?, ?, ?, ?, ?)";
+    private static final String CREATE_CHANGES = "CREATE TEMPORARY TABLE bulk_changes (seq bigint NOT NULL, "
+            + "metadata_value_id integer NOT NULL, resource_id integer, previous_text_value text, "
+            + "previous_metadata_field_id integer, text_value text NOT NULL, metadata_field_id integer) ON COMMIT DROP";
+    // the last row per id, against the stored value; unchanged rows are left out as rowCanBeSkipped does
+    private static final String CAPTURE_CHANGES = "INSERT INTO bulk_changes "
+            + "SELECT s.seq, m.metadata_value_id, m.resource_id, m.text_value, m.metadata_field_id, s.text_value, s.metadata_field_id "
+            + "FROM (SELECT DISTINCT ON (metadata_value_id) * FROM bulk_stage ORDER BY metadata_value_id, seq DESC) s "
+            + "JOIN metadatavalue m ON m.metadata_value_id = s.metadata_value_id "
+            + "WHERE s.text_value = '' OR m.text_value IS DISTINCT FROM COALESCE(s.raw_text_value, s.text_value) "
+            + "OR m.metadata_field_id IS DISTINCT FROM s.metadata_field_id";
+    private static final String COUNT_FOUND = "SELECT count(DISTINCT s.metadata_value_id) FROM bulk_stage s "
+            + "JOIN metadatavalue m ON m.metadata_value_id = s.metadata_value_id";
+    private static final String COUNT_DISTINCT = "SELECT count(DISTINCT metadata_value_id) FROM bulk_stage";
+    private static final String SELECT_ROLLBACK = "SELECT metadata_value_id, previous_text_value, resource_id, "
+            + "previous_metadata_field_id, text_value FROM bulk_changes ORDER BY seq";
+    private static final String APPLY_UPDATES = "UPDATE metadatavalue m SET text_value = c.text_value, "
+            + "metadata_field_id = c.metadata_field_id FROM bulk_changes c "
+            + "WHERE m.metadata_value_id = c.metadata_value_id AND c.text_value <> ''";
+    private static final String APPLY_DELETES = "DELETE FROM metadatavalue m USING bulk_changes c "
+            + "WHERE m.metadata_value_id = c.metadata_value_id AND c.text_value = ''";
+    private static final String SELECT_ITEMS = "SELECT DISTINCT resource_id FROM bulk_changes";
+    private final Connection connection;
+    private final RollbackWriter rollback;
+    private final LauncherMetrics metrics;
+
+    MetadataValueBulkApply(Connection connection, RollbackWriter rollback, LauncherMetrics metrics) {
+        this.connection = connection;
+        this.rollback = rollback;
+        this.metrics = metrics;
+    }
+
+    // applies the rows without committing; the timings are recorded, the counts are left to the caller
+    Result apply(UpdateRow.Columns columns, CsvInput records) throws SQLException, IOException {
+        String product = connection.getMetaData().getDatabaseProductName();
+        if (!"PostgreSQL".equalsIgnoreCase(product)) {
+            throw new SQLException("--bulk needs PostgreSQL, the database is " + product);
+        }
+        executeUpdate(CREATE_STAGE);
+        executeUpdate(CREATE_CHANGES);
+        long rows = stage(columns, records);
+
+        long start = System.nanoTime();
+        executeUpdate(CAPTURE_CHANGES);
+        metrics.record(LauncherMetrics.FIND, start);
+        long distinct = count(COUNT_DISTINCT);
+        long found = count(COUNT_FOUND);
+
+        // the rollback rows are durable before the changes they undo are applied
+        start = System.nanoTime();
+        long changes = writeRollback();
+        rollback.sync();
+        metrics.record(LauncherMetrics.ROLLBACK_WRITE, start);
+
+        start = System.nanoTime();
+        int updated = executeUpdate(APPLY_UPDATES);
+        metrics.record(LauncherMetrics.UPDATE, start);
+        start = System.nanoTime();
+        int deleted = executeUpdate(APPLY_DELETES);
+        metrics.record(LauncherMetrics.DELETE, start);
+
+        if (distinct - found > 0) {
+            System.out.printf("Skipping %d metadata_value_ids with no metadatavalue\n", distinct - found);
+        }
+        return new Result(changedItems(), rows, updated, deleted, found - changes, distinct - found);
+    }
+
+    /**
+     * What an apply changed, for the caller to count once it has committed.
+     */
+    static class Result {
+        // the items whose metadata changed
+        final Set<Integer> changedItemIds;
+        private final long rows;
+        private final long updated;
+        private final long deleted;
+        private final long skipped;
+        private final long missing;
+
+        private Result(Set<Integer> changedItemIds, long rows, long updated, long deleted, long skipped, long missing) {
+            this.changedItemIds = changedItemIds;
+            this.rows = rows;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.skipped = skipped;
+            this.missing = missing;
+        }
+
+        void addTo(LauncherMetrics metrics) {
+            metrics.add(LauncherMetrics.ROWS, rows);
+            metrics.add(LauncherMetrics.UPDATED, updated);
+            metrics.add(LauncherMetrics.DELETED, deleted);
+            metrics.add(LauncherMetrics.SKIPPED, skipped);
+            metrics.add(LauncherMetrics.MISSING, missing);
+        }
+    }
+
+    private long stage(UpdateRow.Columns columns, CsvInput records) throws SQLException {
+        long start = System.nanoTime();
+        long rows = 0;
+        PreparedStatement insert = connection.prepareStatement(INSERT_STAGE);
+        try {
+            for (CSVRecord record : records) {
+                UpdateRow row = columns.compile(record);
+                row.checkComplete();
+                if (row.isNew()) {
+                    throw new IllegalArgumentException("Row " + row.recordNumber + " creates a value, which --bulk does not support");
+                }
+                boolean delete = row.text.equals("");
+                insert.setLong(1, row.recordNumber);
+                insert.setInt(2, row.metadataValueId());
+                insert.setString(3, row.text);
+                // only kept when normalization changed it, for the unchanged check
+                if (row.rawText.equals(row.text)) {
+                    insert.setNull(4, Types.VARCHAR);
+                } else {
+                    insert.setString(4, row.rawText);
+                }
+                if (delete && !row.hasFieldId()) {
+                    insert.setNull(5, Types.INTEGER);
+                } else {
+                    // an update needs a field id, as it does in a normal run
+                    insert.setInt(5, row.fieldId());
+                }
+                insert.addBatch();
+                rows++;
+                metrics.setInputPosition(records.getBytePosition());
+                if (rows % INSERT_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        } finally {
+            insert.close();
+        }
+        metrics.record(STAGE, start);
+        return rows;
+    }
+
+    private long writeRollback() throws SQLException, IOException {
+        long changes = 0;
+        Statement statement = connection.createStatement();
+        try {
+            statement.setFetchSize(INSERT_BATCH_SIZE);
+            ResultSet result = statement.executeQuery(SELECT_ROLLBACK);
+            while (result.next()) {
+                boolean delete = result.getString(5).equals("");
+                // a deleted value is recreated by a rollback row without an id
+                rollback.write(delete ? "" : String.valueOf(result.getInt(1)), result.getString(2), result.getInt(3), result.getInt(4));
+                changes++;
+            }
+        } finally {
+            statement.close();
+        }
+        return changes;
+    }
+
+    private Set<Integer> changedItems() throws SQLException {
+        Set<Integer> items = new LinkedHashSet<Integer>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery(SELECT_ITEMS);
+            while (result.next()) {
+                items.add(result.getInt(1));
+            }
+        } finally {
+            statement.close();
+        }
+        return items;
+    }
+
+    private long count(String query) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery(query);
+            result.next();
+            return result.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int executeUpdate(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            return statement.executeUpdate(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
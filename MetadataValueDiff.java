@@ -0,0 +1,136 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.dspace.content.MetadataValue;
+import org.dspace.core.Constants;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dry run of MetadataValueUpdater.
+ * Classifies every csv row against the database without writing, using the
+ * same batched lookups as a real run. Every row that would change something,
+ * whose id is missing, or that a real run would fail on, is written to the
+ * report with its status, and the problem of an invalid row. Unchanged
+ * rows are only counted, so the report can be fed back to the updater as a
+ * pre-filtered input; the extra columns are ignored there.
+ */
+class MetadataValueDiff {
+    static final String WOULD_UPDATE = "would_update";
+    static final String WOULD_DELETE = "would_delete";
+    static final String WOULD_CREATE = "would_create";
+    static final String UNCHANGED = "unchanged";
+    static final String MISSING = "missing";
+    static final String INVALID = "invalid";
+    private final MetadataValueStore store;
+    private final CsvInput records;
+    private final int windowSize;
+    private final LauncherMetrics metrics;
+    private final IntObjectMap<MetadataValue> current;
+
+    MetadataValueDiff(MetadataValueStore store, CsvInput records, int windowSize, LauncherMetrics metrics) {
+        this.store = store;
+        this.records = records;
+        this.windowSize = windowSize;
+        this.metrics = metrics;
+        this.current = new IntObjectMap<MetadataValue>(windowSize);
+    }
+
+    void write(String reportFileName) throws IOException, SQLException {
+        CSVPrinter report = CSVFormat.DEFAULT.withHeader("status", "metadata_value_id", "text_value", "item_id",
+                "metadata_field_id", "current_text_value", "current_metadata_field_id", "problem")
+                .print(new PrintWriter(reportFileName, Constants.DEFAULT_ENCODING));
+        try {
+            UpdateRow.Columns columns = new UpdateRow.Columns(records);
+            List<UpdateRow> window = new ArrayList<UpdateRow>(windowSize);
+            for (CSVRecord record : records) {
+                window.add(columns.compile(record));
+                if (window.size() == windowSize) {
+                    diffWindow(window, report);
+                    window.clear();
+                }
+            }
+            if (!window.isEmpty()) {
+                diffWindow(window, report);
+            }
+        } finally {
+            report.close();
+        }
+        System.out.printf("Dry run: %d would update, %d would delete, %d would create, %d unchanged, %d missing, %d invalid\n",
+                metrics.get(WOULD_UPDATE), metrics.get(WOULD_DELETE), metrics.get(WOULD_CREATE),
+                metrics.get(UNCHANGED), metrics.get(MISSING), metrics.get(INVALID));
+    }
+
+    private void diffWindow(List<UpdateRow> window, CSVPrinter report) throws IOException, SQLException {
+        load(window);
+        for (UpdateRow row : window) {
+            MetadataValue mdv = row.metadataValueId < 0 ? null : current.get(row.metadataValueId);
+            String status;
+            String problem = "";
+            // a row a real run would fail on is reported, the rest of the dry run goes on
+            try {
+                status = classify(row, mdv);
+            } catch (IllegalArgumentException e) {
+                status = INVALID;
+                problem = String.valueOf(e.getMessage());
+            }
+            metrics.increment(status);
+            metrics.increment(LauncherMetrics.ROWS);
+            if (!status.equals(UNCHANGED)) {
+                report.printRecord(status, row.metadataValueIdText, row.rawText, row.itemIdText,
+                        row.fieldIdText, mdv == null ? "" : mdv.getValue(),
+                        mdv == null ? "" : String.valueOf(mdv.getFieldId()), problem);
+            }
+        }
+        current.clear();
+    }
+
+    // throws for the rows a real run would fail on
+    private static String classify(UpdateRow row, MetadataValue mdv) {
+        row.checkComplete();
+        // a missing or malformed id throws here, as it does in a real run
+        if (row.isNew()) {
+            row.itemId();
+            row.fieldId();
+            return WOULD_CREATE;
+        }
+        row.metadataValueId();
+        if (mdv == null) {
+            return MISSING;
+        }
+        if (row.text.equals("")) {
+            return WOULD_DELETE;
+        }
+        return MetadataValueOperation.rowCanBeSkipped(mdv, row) ? UNCHANGED : WOULD_UPDATE;
+    }
+
+    private void load(List<UpdateRow> window) throws SQLException {
+        List<Integer> ids = new ArrayList<Integer>(MetadataValueOperation.PREFETCH_QUERY_SIZE);
+        for (UpdateRow row : window) {
+            if (row.metadataValueId >= 0) {
+                ids.add(row.metadataValueId);
+            }
+            if (ids.size() == MetadataValueOperation.PREFETCH_QUERY_SIZE) {
+                loadIds(ids);
+                ids.clear();
+            }
+        }
+        if (!ids.isEmpty()) {
+            loadIds(ids);
+        }
+    }
+
+    private void loadIds(List<Integer> ids) throws SQLException {
+        long start = System.nanoTime();
+        store.load(ids, current);
+        metrics.record(LauncherMetrics.FIND, start);
+    }
+}
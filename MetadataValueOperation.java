@@ -0,0 +1,254 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.MetadataValue;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.PendingChanges;
+import uiuc.edu.dspace.app.launcher.RowOperation;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MetadataValueUpdater's row operation: creates, updates or deletes one
+ * metadata value per csv row through a MetadataValueStore. The values of
+ * a window are prefetched with batched queries; a batch is one
+ * transaction on the store.
+ */
+class MetadataValueOperation implements RowOperation<UpdateRow, IntObjectMap<MetadataValue>> {
+    // stay below the 1000 element IN list limit of some databases
+    static final int PREFETCH_QUERY_SIZE = 1000;
+    // probes of a batch's changes, checked by committed after a crash
+    private static final String CREATED_PROBE = "created|";
+    private static final String DELETED_PROBE = "deleted|";
+    private static final String UPDATED_PROBE = "updated|";
+    private final MetadataValueStore store;
+    private final LauncherMetrics metrics;
+    private final boolean isVerbose;
+    private final int prefetchSize;
+    // false for the launcher's own store, which the launcher closes
+    private final boolean ownsStore;
+    // ids this operation has written; a prefetched copy may predate the write, or hold a rolled back one
+    private final BitSet written = new BitSet();
+
+    MetadataValueOperation(MetadataValueStore store, LauncherMetrics metrics, boolean isVerbose, int prefetchSize, boolean ownsStore) {
+        this.store = store;
+        this.metrics = metrics;
+        this.isVerbose = isVerbose;
+        this.prefetchSize = prefetchSize;
+        this.ownsStore = ownsStore;
+    }
+
+    // a fresh map per window, since on a pipelined run the writer still holds the previous one
+    @Override
+    public IntObjectMap<MetadataValue> prefetch(List<List<UpdateRow>> window) throws SQLException {
+        IntObjectMap<MetadataValue> loaded = new IntObjectMap<MetadataValue>(prefetchSize);
+        List<Integer> ids = new ArrayList<Integer>(PREFETCH_QUERY_SIZE);
+        for (List<UpdateRow> batch : window){
+            for (UpdateRow row : batch){
+                // malformed ids are left to fail on their own row
+                if (row.metadataValueId >= 0){
+                    ids.add(row.metadataValueId);
+                }
+                if (ids.size() == PREFETCH_QUERY_SIZE){
+                    loadIds(ids, loaded);
+                    ids.clear();
+                }
+            }
+        }
+        if (!ids.isEmpty()){
+            loadIds(ids, loaded);
+        }
+        return loaded;
+    }
+
+    private void loadIds(List<Integer> ids, IntObjectMap<MetadataValue> into) throws SQLException {
+        long start = System.nanoTime();
+        store.load(ids, into);
+        metrics.record(LauncherMetrics.FIND, start);
+    }
+
+    @Override
+    public String apply(UpdateRow row, IntObjectMap<MetadataValue> prefetched, PendingChanges changes) throws SQLException, IOException, AuthorizeException {
+        row.checkComplete();
+        if (row.isNew()){
+            printNewRecord(row);
+            return newRecord(row, changes);
+        }
+        printProcessInfo(row);
+        return updateMDV(row, prefetched, changes);
+    }
+
+    @Override
+    public void commit(Set<Integer> changedItemIds) throws SQLException {
+        store.commit(changedItemIds);
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return true;
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        store.rollback();
+    }
+
+    @Override
+    public void close(boolean succeeded) throws SQLException {
+        if (ownsStore){
+            store.close(succeeded);
+        }
+    }
+
+    private String newRecord(UpdateRow row, PendingChanges changes) throws SQLException, AuthorizeException, IOException {
+        MetadataValue metadata = new MetadataValue();
+        metadata.setResourceId(row.itemId());
+        metadata.setFieldId(row.fieldId());
+        metadata.setValue(row.rawText);
+        metadata.setLanguage("en");
+        long start = System.nanoTime();
+        store.create(metadata);
+        metrics.record(LauncherMetrics.CREATE, start);
+        printRollbackLine(String.valueOf(metadata.getValueId()), metadata.getValue());
+        changes.rollback(String.valueOf(metadata.getValueId()), "", metadata.getResourceId(), metadata.getFieldId());
+        changes.probe(CREATED_PROBE + metadata.getValueId());
+        updateContextForMetadataChange(metadata.getResourceId(), changes);
+        return LauncherMetrics.CREATED;
+    }
+
+    private String updateMDV(UpdateRow row, IntObjectMap<MetadataValue> prefetched, PendingChanges changes) throws SQLException, IOException, AuthorizeException {
+        String id = row.metadataValueIdText;
+        String newVal = row.text;
+        MetadataValue mdv = findMetadataValue(row.metadataValueId(), prefetched);
+        if (mdv==null){
+            System.out.printf("Skipping metadata_value_id %s. No metadatavalue found for %s\n", id, id);
+            return LauncherMetrics.MISSING;
+        }
+        if (newVal.equals("")){
+            printDeleteVal(mdv);
+            printRollbackLine(String.valueOf(mdv.getValueId()), mdv.getValue());
+            changes.rollback("", mdv.getValue(), mdv.getResourceId(), mdv.getFieldId());
+            changes.probe(DELETED_PROBE + mdv.getValueId());
+            written.set(mdv.getValueId());
+            long start = System.nanoTime();
+            store.delete(mdv);
+            metrics.record(LauncherMetrics.DELETE, start);
+            updateContextForMetadataChange(mdv.getResourceId(), changes);
+            return LauncherMetrics.DELETED;
+        } else if (!rowCanBeSkipped(mdv, row)){
+            printNewVal(newVal);
+            printRollbackLine(String.valueOf(mdv.getValueId()), mdv.getValue());
+            changes.rollback(String.valueOf(mdv.getValueId()), mdv.getValue(), mdv.getResourceId(), mdv.getFieldId());
+            changes.probe(UPDATED_PROBE + mdv.getValueId() + "|" + mdv.getFieldId() + "|" + mdv.getValue());
+            // marked before the prefetched copy is changed, so a rolled back change is never reused
+            written.set(mdv.getValueId());
+            mdv.setValue(newVal);
+            if (row.hasFieldId()){
+                mdv.setFieldId(row.fieldId());
+            }
+            long start = System.nanoTime();
+            store.update(mdv);
+            metrics.record(LauncherMetrics.UPDATE, start);
+            updateContextForMetadataChange(mdv.getResourceId(), changes);
+            return LauncherMetrics.UPDATED;
+        }else {
+            printOnSkip(id, mdv.getValue(), row);
+            return LauncherMetrics.SKIPPED;
+        }
+
+    }
+
+    // prefetched values are used when present; ids missed by the prefetch fall back to a single lookup,
+    // as do ids this operation wrote since their prefetched copy may be stale
+    private MetadataValue findMetadataValue(int id, IntObjectMap<MetadataValue> prefetched) throws SQLException, IOException, AuthorizeException {
+        MetadataValue mdv = written.get(id) ? null : prefetched.get(id);
+        if (mdv == null){
+            long start = System.nanoTime();
+            mdv = store.find(id);
+            metrics.record(LauncherMetrics.FIND, start);
+        }
+        return mdv;
+    }
+
+    ////////////////////////////////////
+    // utility methods
+    ////////////////////////////////////
+
+    // whether the change a probe describes is in the store, so the batch it came from committed
+    static boolean committed(String probe, MetadataValueStore store) throws SQLException, IOException, AuthorizeException {
+        String[] parts = probe.split("\\|", 4);
+        MetadataValue mdv = store.find(Integer.parseInt(parts[1]));
+        if (probe.startsWith(CREATED_PROBE)){
+            return mdv != null;
+        }
+        if (probe.startsWith(DELETED_PROBE)){
+            return mdv == null;
+        }
+        // an update committed unless the value still has the field and text it had before
+        return mdv == null || mdv.getFieldId() != Integer.parseInt(parts[2]) || !parts[3].equals(mdv.getValue());
+    }
+
+    static boolean rowCanBeSkipped(MetadataValue mdv, UpdateRow row){
+        return mdv.getValue().equals(row.rawText)&&mdv.getFieldId()==row.fieldId();
+
+    }
+
+    // the event is queued with the open batch and dispatched by the store on commit
+    private void updateContextForMetadataChange(int item_id, PendingChanges changes) {
+        printOnChange(item_id);
+        changes.changedItem(item_id);
+
+    }
+
+    //verbose printing methods
+
+    private void printOnChange(int id){
+        if (isVerbose){
+            System.out.printf("Changing Item id: %d\n", id);
+        }
+    }
+
+    private void printNewVal(String newVal) {
+        if (isVerbose){
+            System.out.printf("newVal: %s\n", newVal);
+        }
+    }
+
+    private void printOnSkip(String id, String value, UpdateRow row) {
+         if (isVerbose){
+             System.out.printf("skipping id %s since %s matched %s\n", id, row.metadataValueIdText, value);
+         }
+    }
+
+    private void printRollbackLine(String metadataValueId, String textValue) {
+        if (isVerbose){
+            System.out.printf("writing key=%s, value=%s to rollback file\n", metadataValueId, textValue);
+        }
+    }
+
+    private void printProcessInfo(UpdateRow row) {
+        if (isVerbose) {
+            System.out.println("key: " + row.metadataValueIdText + "; " + "val: "
+                    + row.text);
+        }
+    }
+
+    private void printNewRecord(UpdateRow row) {
+        if (isVerbose) {
+            System.out.println("new record for " + row.text + "; ");
+        }
+    }
+
+    private void printDeleteVal(MetadataValue mdv){
+        if (isVerbose) {
+            System.out.println("Deleting metadatavalue" + mdv.getValueId() + ". Field: "+mdv.getFieldId()+
+                    " Value: "+mdv.getValue()+"; ");
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.MetadataValue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The database operations MetadataValueUpdater performs, behind one
+ * transaction. DSpaceMetadataValueStore is the real one; the benchmarks
+ * use an in-memory stand-in.
+ */
+interface MetadataValueStore {
+
+    // loads the metadata values for up to MetadataValueOperation.PREFETCH_QUERY_SIZE ids with one query
+    void load(List<Integer> ids, IntObjectMap<MetadataValue> into) throws SQLException;
+
+    MetadataValue find(int id) throws SQLException, IOException, AuthorizeException;
+
+    void create(MetadataValue mdv) throws SQLException, AuthorizeException;
+
+    void update(MetadataValue mdv) throws SQLException, AuthorizeException;
+
+    void delete(MetadataValue mdv) throws SQLException, AuthorizeException;
+
+    // commits the open transaction with one MODIFY_METADATA event per changed item
+    void commit(Set<Integer> changedItemIds) throws SQLException;
+
+    void rollback() throws SQLException;
+
+    // ends the store's use, committing anything left if the work succeeded
+    void close(boolean succeeded) throws SQLException;
+}
@@ -1,24 +1,18 @@
 package uiuc.edu.dspace.app.metadatavalueimport;
 
-import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.cli.*;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
-import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.MetadataValue;
-import org.dspace.core.Constants;
-import org.dspace.core.Context;
-import org.dspace.eperson.EPerson;
-import org.dspace.event.Event;
-import org.dspace.search.DSIndexer;
+import uiuc.edu.dspace.app.launcher.BatchRunner;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.Launcher;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.RowOperation;
+import uiuc.edu.dspace.app.launcher.RowOperationFactory;
+import uiuc.edu.dspace.app.launcher.RowValidator;
+import uiuc.edu.dspace.app.launcher.RowValidatorFactory;
 
 import java.io.*;
-import java.sql.SQLException;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.text.Normalizer;
 
 /**
  * Created by srobbins on 7/24/15.
@@ -26,272 +20,158 @@ import java.text.Normalizer;
  * A csv generated from the database can be modified in place
  * and fed to this batch process.
  */
-public class MetadataValueUpdater {
-    private final Context context;
-    private final String inFileName;
-    private final String outFileName;
-    private final Iterable<CSVRecord> records;
-    private final boolean isVerbose;
-    private static CSVPrinter printer = null;//CSVFormat.DEFAULT.withHeader("metadata_value_id", "text_value");
-
-
-    public MetadataValueUpdater(Context c, String in, String out, boolean isVerbose) throws Exception {
-        this.inFileName = in;
-        this.outFileName = out;
-        this.context = c;
-        this.records = readArgFile();
-        this.isVerbose = isVerbose;
-    }
+public class MetadataValueUpdater extends Launcher implements RowOperationFactory<UpdateRow, IntObjectMap<MetadataValue>>,
+        RowValidatorFactory<UpdateRow> {
+    private int batchSize;
+    private int prefetchSize;
+    private int threads;
+    private boolean dryRun;
+    private boolean pipeline;
+    private boolean bulk;
+    private CsvInput records;
+    private UpdateRow.Columns columns;
 
     public static void main(String[] argv) throws IOException {
-        DSIndexer.setBatchProcessingMode(true);
-        Date startTime = new Date();
-        int status = 0;
-        try
-        {
-            // create an options object and populate it
-            CommandLineParser parser = new PosixParser();
-            Options options = new Options();
-            options.addOption("f", "file", true, "file containing items metdatavalue changes");
-            options.addOption("e", "eperson", true, "eperson to perform update actions");
-            options.addOption("r", "rollback", true, "name of rollback file");
-            options.addOption("v", "verbose", false, "verbose logging to stdout");
-            options.addOption("h", "help", false, "help");
-            CommandLine line = parser.parse(options, argv);
-
-            if (line.hasOption('h')){
-                printHelpAndExit(options);
-            }
-            // create a context
-            Context c = new Context();
-            EPerson myEPerson = parseUser(c, line.getOptionValue("e"));
-            String in = line.getOptionValue("f");
-            String out = line.getOptionValue("r");
-
-            PrintWriter printerStream = new PrintWriter(out, Constants.DEFAULT_ENCODING);
-            printer = CSVFormat.DEFAULT.withHeader("metadata_value_id", "text_value", "item_id", "metadata_field_id").print(printerStream);
-            c.setCurrentUser(myEPerson);
-            MetadataValueUpdater updater = new MetadataValueUpdater(c, in, out, line.hasOption("v"));
-            updater.process();
-
-        } catch (ParseException e) {
-            e.printStackTrace();
-            System.out.println(e);
-            status = 1;
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println(e);
-            status = 1;
-        } finally
-        {
-            printer.close();
-            DSIndexer.setBatchProcessingMode(false);
-            Date endTime = new Date();
-            System.out.println("Started: " + startTime.getTime());
-            System.out.println("Ended: " + endTime.getTime());
-            System.out.println("Elapsed time: " + ((endTime.getTime() - startTime.getTime()) / 1000) + " secs (" + (endTime.getTime() - startTime.getTime()) + " msecs)");
-        }
-
-        System.exit(status);
-    }
-
-    private void process() throws IOException, SQLException, AuthorizeException {
-        testFiles();
-        processRecords();
-    }
-
-    private void processRecords() throws SQLException, IOException, AuthorizeException {
-        for (CSVRecord record :records)
-        {
-            if (record.get("metadata_value_id").equals("")){
-                printNewRecord(record);
-                newRecord(record);
-
-            } else {
-                printProcessInfo(record);
-                updateMDV(record);
-            }
-        }
-    }
-
-    private void newRecord(CSVRecord record) throws SQLException, AuthorizeException, IOException {
-        MetadataValue metadata = new MetadataValue();
-        metadata.setResourceId(Integer.parseInt(record.get("item_id")));
-        metadata.setFieldId(Integer.parseInt(record.get("metadata_field_id")));
-        metadata.setValue(record.get("text_value"));
-        metadata.setLanguage("en");
-        metadata.create(context);
-        writeRollbackRowForNew(MetadataValue.find(context, metadata.getValueId()));
-        context.addEvent(new Event(Event.MODIFY_METADATA, Constants.ITEM, metadata.getResourceId(), null));
-        context.commit();
-        context.clearCache();
+        System.exit(run(argv));
     }
 
-    private void writeRollbackRowForNew(MetadataValue mdv) throws IOException {
-        printRollbackLine(String.valueOf(mdv.getValueId()), mdv.getValue());
-        printer.printRecord(String.valueOf(mdv.getValueId()), "", mdv.getResourceId(), mdv.getFieldId());
-        printer.flush();
+    // runs the launcher and returns its exit status, so other tools can drive it in the same JVM
+    public static int run(String[] argv) throws IOException {
+        return new MetadataValueUpdater().launch(argv);
     }
 
-
-    private void writeRollbackRowForUpdate(MetadataValue mdv) throws IOException {
-        printRollbackLine(String.valueOf(mdv.getValueId()), mdv.getValue());
-        printer.printRecord(String.valueOf(mdv.getValueId()), mdv.getValue(), mdv.getResourceId(), mdv.getFieldId());
-        printer.flush();
-    }
-
-    private void writeRollbackRowForDelete(MetadataValue mdv) throws IOException {
-        printRollbackLine(String.valueOf(mdv.getValueId()), mdv.getValue());
-        printer.printRecord("", mdv.getValue(), mdv.getResourceId(), mdv.getFieldId());
-        printer.flush();
+    @Override
+    protected void addOptions(Options options) {
+        options.addOption("b", "batch-size", true, "number of csv rows to apply per transaction (default 1)");
+        options.addOption("p", "prefetch", true, "number of upcoming csv rows whose metadata values are loaded in one query (default 1000)");
+        options.addOption("t", "threads", true, "number of workers, each with its own context; rows are partitioned by item_id (default 1)");
+        options.addOption("d", "dry-run", true, "write a report of the rows that would change to this file instead of applying them");
+        options.addOption("P", "pipeline", false, "parse, look up and write in separate stages, so the next rows are read and loaded while the current batch commits");
+        options.addOption("B", "bulk", false, "apply all updates and deletes with set based sql in one transaction (PostgreSQL only, no new values)");
     }
 
-    private static void printHelpAndExit(Options options) {
-        HelpFormatter myHelp = new HelpFormatter();
-        myHelp.printHelp(MetadataValueUpdater.class.toString(), options);
-        System.exit(0);
-    }
-
-    private static EPerson parseUser(Context c, String eperson) throws SQLException, AuthorizeException {
-        // find the EPerson, assign to context
-        EPerson myEPerson =null;
-        if (eperson.indexOf('@') != -1)
-        {
-            // @ sign, must be an email
-            myEPerson = EPerson.findByEmail(c, eperson);
+    @Override
+    protected String validate(CommandLine line) {
+        dryRun = line.hasOption("d");
+        batchSize = Integer.parseInt(line.getOptionValue("b", "1"));
+        prefetchSize = Integer.parseInt(line.getOptionValue("p", "1000"));
+        threads = Integer.parseInt(line.getOptionValue("t", "1"));
+        pipeline = line.hasOption("P");
+        bulk = line.hasOption("B");
+        if (batchSize < 1 || prefetchSize < 1 || threads < 1){
+            return "batch-size, prefetch and threads must be at least 1";
         }
-        else
-        {
-            myEPerson = EPerson.find(c, Integer.parseInt(eperson));
+        if (pipeline && threads > 1){
+            return "A pipelined run has a single writer and cannot be combined with threads";
         }
-
-        if (myEPerson == null)
-        {
-            System.out.println("Error, eperson cannot be found: " + eperson);
-            System.exit(1);
+        if (bulk && (threads > 1 || pipeline || dryRun || resume)){
+            return "A bulk run is a single transaction and cannot be combined with threads, pipeline, dry-run or resume";
         }
-        return myEPerson;
-    }
-
-    private void updateMDV(CSVRecord record) throws SQLException, IOException, AuthorizeException {
-        String id = record.get("metadata_value_id");
-        String newVal = getNewVal(record);
-        MetadataValue mdv = MetadataValue.find(context, Integer.parseInt(id));
-        if (mdv==null){
-            System.out.printf("Skipping metadata_value_id %s. No metadatavalue found for %s\n", id, id);
-            return;
+        if (dryRun && resume){
+            return "A dry run cannot be resumed";
         }
-        if (getNewVal(record).equals("")){
-            printDeleteVal(mdv);
-            writeRollbackRowForDelete(mdv);
-            mdv.delete(context);
-            updateContextForMetadataChange(context, mdv.getResourceId());
-        } else if (!rowCanBeSkipped(mdv, record)){
-            printNewVal(newVal);
-            writeRollbackRowForUpdate(mdv);
-            mdv.setValue(newVal);
-            if (record.isSet("metadata_field_id")){
-                mdv.setFieldId(Integer.parseInt(record.get("metadata_field_id")));
-            }
-            mdv.update(context);
-            updateContextForMetadataChange(context, mdv.getResourceId());
-        }else {
-            printOnSkip(id, mdv.getValue(), record);
+        if (resume && threads > 1){
+            return "Threaded runs are not checkpointed and cannot be resumed";
         }
-
+        return null;
     }
 
-    ////////////////////////////////////
-    // utility methods
-    ////////////////////////////////////
-
-    private boolean rowCanBeSkipped(MetadataValue mdv, CSVRecord record){
-        return mdv.getValue().equals(record.get("text_value"))&&mdv.getFieldId()==Integer.parseInt(record.get("metadata_field_id"));
-
+    // a dry run writes its report in place of the rollback file
+    @Override
+    protected String outputFileName(CommandLine line) {
+        return line.hasOption("d") ? line.getOptionValue("d") : line.getOptionValue("r");
     }
 
-    // read in the map file and generate a hashmap of (file,handle) pairs
-    private Iterable<CSVRecord> readArgFile() throws Exception
-    {
-        InputStream in = new FileInputStream(inFileName);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
-        Iterable<CSVRecord> records = CSVFormat.DEFAULT.withHeader().parse(reader);
-        return records;
+    @Override
+    protected boolean writesRollback(CommandLine line) {
+        return !line.hasOption("d");
     }
 
-    private void updateContextForMetadataChange(Context context, int item_id) throws SQLException {
-        printOnChange(item_id);
-        context.addEvent(new Event(Event.MODIFY_METADATA, Constants.ITEM, item_id, null));
-        context.commit();
-        context.clearCache();
-
+    @Override
+    protected String[] rollbackHeader() {
+        return new String[]{"metadata_value_id", "text_value", "item_id", "metadata_field_id"};
     }
 
-    private String getNewVal(CSVRecord record){
-        return Normalizer.normalize(record.get("text_value"), Normalizer.Form.NFC);
+    // every batch with changes records a probe, so only a batch without any has nothing to check
+    @Override
+    protected Boolean pendingBatchCommitted(String probe) throws Exception {
+        if (probe.equals("")){
+            return null;
+        }
+        return MetadataValueOperation.committed(probe, new DSpaceMetadataValueStore(context));
     }
 
-    private void testFiles(){
-        boolean exit = false;
-        if (!(new File(inFileName).exists())){
-            exit = true;
-            System.out.printf("Input csv %s not found\n", inFileName);
-        }
-        try{
-              new File(outFileName).createNewFile();
-        }
-        catch(IOException e){
-            exit = true;
-            System.out.printf("Output csv %s not found\n", outFileName);
-        }
-        if(exit) {
-            System.exit(1);
-        }
+    @Override
+    protected RowValidatorFactory<?> validatorFactory() {
+        return this;
     }
-    //verbose printing methods
 
-    private void printOnChange(int id){
-        if (isVerbose){
-            System.out.printf("Changing Item id: %d\n", id);
-        }
+    @Override
+    public RowValidator<UpdateRow> createValidator(CsvInput input) throws Exception {
+        return new MetadataValueValidator(newWorkerContext(), input, bulk, index);
     }
 
-    private void printNewVal(String newVal) {
-        if (isVerbose){
-            System.out.printf("newVal: %s\n", newVal);
+    @Override
+    protected void process() throws Exception {
+        records = openInput();
+        try {
+            if (dryRun){
+                new MetadataValueDiff(new DSpaceMetadataValueStore(context), records, prefetchSize, metrics).write(outFileName);
+                return;
+            }
+            columns = new UpdateRow.Columns(records);
+            if (bulk){
+                processBulk();
+                return;
+            }
+            if (threads > 1 && !columns.hasItemId()){
+                throw new IllegalArgumentException("Input csv needs an item_id column to run with more than one thread");
+            }
+            new BatchRunner<UpdateRow, IntObjectMap<MetadataValue>>(this, rollback, metrics, modified, checkpoint,
+                    batchSize, prefetchSize, threads, pipeline).run(records);
+        } finally {
+            records.close();
+        }
+    }
+
+    private void processBulk() throws Exception {
+        MetadataValueStore store = new DSpaceMetadataValueStore(context);
+        boolean committed = false;
+        try {
+            MetadataValueBulkApply.Result result = new MetadataValueBulkApply(context.getDBConnection(), rollback, metrics).apply(columns, records);
+            long start = System.nanoTime();
+            store.commit(result.changedItemIds);
+            metrics.record(LauncherMetrics.COMMIT, start);
+            committed = true;
+            // a failed commit changed nothing, so nothing is counted before it succeeds
+            result.addTo(metrics);
+            modified.addAll(result.changedItemIds);
+        } finally {
+            if (!committed){
+                store.rollback();
+            }
         }
+        checkpoint.markComplete();
     }
 
-    private void printOnSkip(String id, String value, CSVRecord record) {
-         if (isVerbose){
-             System.out.printf("skipping id %s since %s matched %s\n", id, record.get("metadata_value_id"), value);
-         }
+    @Override
+    public UpdateRow parse(CSVRecord record, CsvInput input) {
+        return columns.compile(record);
     }
 
-    private void printRollbackLine(String metadataValueId, String textValue) {
-        if (isVerbose){
-            System.out.printf("writing key=%s, value=%s to rollback file\n", metadataValueId, textValue);
-        }
+    // all rows of an item go to the same worker and the same commit, so the item gets one event
+    @Override
+    public int partitionKey(UpdateRow row) {
+        return row.itemId;
     }
 
-
-    private void printProcessInfo(CSVRecord record) {
-        if (isVerbose) {
-            System.out.println("key: " + record.get("metadata_value_id") + "; " + "val: "
-                    + getNewVal(record));
-        }
+    @Override
+    public RowOperation<UpdateRow, IntObjectMap<MetadataValue>> create() {
+        return new MetadataValueOperation(new DSpaceMetadataValueStore(context), metrics, isVerbose, prefetchSize, false);
     }
 
-    private void printNewRecord(CSVRecord record) {
-        if (isVerbose) {
-            System.out.println("new record for " + getNewVal(record) + "; ");
-        }
+    @Override
+    public RowOperation<UpdateRow, IntObjectMap<MetadataValue>> createWithOwnContext() throws Exception {
+        return new MetadataValueOperation(new DSpaceMetadataValueStore(newWorkerContext()), metrics, isVerbose, prefetchSize, true);
     }
-    private void printDeleteVal(MetadataValue mdv){
-        if (isVerbose) {
-            System.out.println("Deleting metadatavalue" + mdv.getValueId() + ". Field: "+mdv.getFieldId()+
-                    " Value: "+mdv.getValue()+"; ");
-        }
-    }
-
 }
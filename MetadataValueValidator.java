@@ -0,0 +1,206 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.apache.commons.csv.CSVRecord;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LookupIndex;
+import uiuc.edu.dspace.app.launcher.RowValidator;
+import uiuc.edu.dspace.app.launcher.ValidationReport;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pre-flight checks of a MetadataValueUpdater input range: every id
+ * parses, new values and updates carry the ids they need, field ids
+ * exist, a value's item_id is the item it belongs to, and the items of
+ * new values exist. Values and items are looked up a chunk at a time;
+ * the items values belong to come from the lookup index when the run
+ * has one.
+ * A metadata_value_id with no value is not a problem, the run skips it.
+ */
+class MetadataValueValidator implements RowValidator<UpdateRow> {
+    private static final String FIELD_QUERY = "SELECT metadata_field_id FROM metadatafieldregistry";
+    // only item values, like the lookup index holds
+    private static final String VALUE_QUERY = "SELECT metadata_value_id, resource_id FROM metadatavalue WHERE resource_type_id = "
+            + Constants.ITEM + " AND metadata_value_id IN (";
+    private static final String ITEM_QUERY = "SELECT item_id FROM item WHERE item_id IN (";
+    private final Context context;
+    private final UpdateRow.Columns columns;
+    // a --bulk run can't create values
+    private final boolean bulk;
+    private final BitSet fieldIds = new BitSet();
+    // null when the run has none
+    private final LookupIndex index;
+
+    MetadataValueValidator(Context context, CsvInput input, boolean bulk, LookupIndex index) throws SQLException {
+        this.context = context;
+        this.columns = new UpdateRow.Columns(input);
+        this.bulk = bulk;
+        this.index = index;
+        TableRowIterator rows = DatabaseManager.query(context, FIELD_QUERY);
+        try {
+            while (rows.hasNext()) {
+                fieldIds.set(rows.next().getIntColumn("metadata_field_id"));
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    @Override
+    public UpdateRow parse(CSVRecord record) {
+        return columns.compile(record);
+    }
+
+    @Override
+    public void check(List<UpdateRow> rows, ValidationReport report) throws SQLException, IOException {
+        List<UpdateRow> existing = new ArrayList<UpdateRow>();
+        List<UpdateRow> created = new ArrayList<UpdateRow>();
+        for (UpdateRow row : rows) {
+            if (checkRow(row, report)) {
+                if (row.isNew()) {
+                    created.add(row);
+                } else if (row.hasItemId()) {
+                    existing.add(row);
+                }
+            }
+        }
+        checkOwners(existing, report);
+        checkItems(created, report);
+    }
+
+    // the checks that need no query; returns whether the row's ids can be looked up
+    private boolean checkRow(UpdateRow row, ValidationReport report) throws IOException {
+        try {
+            row.checkComplete();
+        } catch (IllegalArgumentException e) {
+            report.problem(row.recordNumber, "", "", e.getMessage());
+            return false;
+        }
+        boolean ok = true;
+        if (!row.isNew() && row.metadataValueId < 0) {
+            report.problem(row.recordNumber, "metadata_value_id", row.metadataValueIdText, "not an id");
+            ok = false;
+        }
+        if (row.hasItemId() && row.itemId < 0) {
+            report.problem(row.recordNumber, "item_id", row.itemIdText, "not an id");
+            ok = false;
+        }
+        if (row.hasFieldId() && row.fieldId < 0) {
+            report.problem(row.recordNumber, "metadata_field_id", row.fieldIdText, "not an id");
+            ok = false;
+        } else if (row.hasFieldId() && !fieldIds.get(row.fieldId)) {
+            report.problem(row.recordNumber, "metadata_field_id", row.fieldIdText, "no metadata field with this id");
+        }
+        if (row.isNew()) {
+            if (bulk) {
+                report.problem(row.recordNumber, "metadata_value_id", "", "--bulk can't create values");
+            }
+            if (!row.hasItemId()) {
+                report.problem(row.recordNumber, "item_id", "", "a new value needs an item_id");
+                ok = false;
+            }
+            if (!row.hasFieldId()) {
+                report.problem(row.recordNumber, "metadata_field_id", "", "a new value needs a metadata_field_id");
+            }
+        } else if (!row.text.equals("") && !row.hasFieldId()) {
+            // the unchanged check compares field ids
+            report.problem(row.recordNumber, "metadata_field_id", "", "an update needs a metadata_field_id");
+        }
+        return ok;
+    }
+
+    // rows are partitioned and batched by item_id, which must be the item the value belongs to
+    private void checkOwners(List<UpdateRow> rows, ValidationReport report) throws SQLException, IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> owners = index != null ? indexedOwners(rows) : owners(rows);
+        for (UpdateRow row : rows) {
+            Integer owner = owners.get(row.metadataValueId);
+            if (owner != null && owner != row.itemId) {
+                report.problem(row.recordNumber, "item_id", row.itemIdText, "metadata_value_id " + row.metadataValueId + " belongs to item " + owner);
+            }
+        }
+    }
+
+    private Map<Integer, Integer> owners(List<UpdateRow> rows) throws SQLException {
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (UpdateRow row : rows) {
+            ids.add(row.metadataValueId);
+        }
+        Map<Integer, Integer> owners = new HashMap<Integer, Integer>();
+        TableRowIterator result = DatabaseManager.query(context, inList(VALUE_QUERY, ids.size()), ids.toArray());
+        try {
+            while (result.hasNext()) {
+                TableRow value = result.next();
+                owners.put(value.getIntColumn("metadata_value_id"), value.getIntColumn("resource_id"));
+            }
+        } finally {
+            result.close();
+        }
+        return owners;
+    }
+
+    // a value's item never changes, and a value the index doesn't hold is as missing as one the query doesn't find
+    private Map<Integer, Integer> indexedOwners(List<UpdateRow> rows) {
+        Map<Integer, Integer> owners = new HashMap<Integer, Integer>();
+        for (UpdateRow row : rows) {
+            int owner = index.itemOf(row.metadataValueId);
+            if (owner != -1) {
+                owners.put(row.metadataValueId, owner);
+            }
+        }
+        return owners;
+    }
+
+    private void checkItems(List<UpdateRow> rows, ValidationReport report) throws SQLException, IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (UpdateRow row : rows) {
+            ids.add(row.itemId);
+        }
+        Set<Integer> found = new LinkedHashSet<Integer>();
+        TableRowIterator result = DatabaseManager.query(context, inList(ITEM_QUERY, ids.size()), ids.toArray());
+        try {
+            while (result.hasNext()) {
+                found.add(result.next().getIntColumn("item_id"));
+            }
+        } finally {
+            result.close();
+        }
+        for (UpdateRow row : rows) {
+            if (!found.contains(row.itemId)) {
+                report.problem(row.recordNumber, "item_id", row.itemIdText, "no item with this id");
+            }
+        }
+    }
+
+    private static String inList(String query, int size) {
+        StringBuilder sql = new StringBuilder(query);
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(")").toString();
+    }
+
+    // the validator only reads
+    @Override
+    public void close() {
+        context.abort();
+    }
+}
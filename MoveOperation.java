@@ -0,0 +1,39 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.dspace.app.xmlui.aspect.administrative.FlowItemUtils;
+import org.dspace.core.Context;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+
+import java.util.List;
+
+/**
+ * Moves items to a new owning collection.
+ */
+class MoveOperation extends MappingOperation {
+
+    MoveOperation(Context context, HandleLookup lookup, LauncherMetrics metrics, int groupSize, boolean ownsContext) {
+        super(context, lookup, metrics, groupSize, ownsContext);
+    }
+
+    @Override
+    String modeName() {
+        return "move";
+    }
+
+    @Override
+    boolean stage(State state, int itemId, int collectionId, String collectionHandle) {
+        if (collectionHandle.equals(state.getOwner(itemId))) {
+            return false;
+        }
+        state.setOwner(itemId, collectionHandle);
+        return true;
+    }
+
+    // processMoveItem only takes a single item; the group still shares one collection lookup
+    @Override
+    void applyGroup(Context context, int collectionId, List<String> itemIds) throws Exception {
+        for (String itemId : itemIds) {
+            FlowItemUtils.processMoveItem(context, Integer.parseInt(itemId), collectionId, false);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What the rows of an open batch changed: their rollback rows and the
+ * items to send events for, and a probe: one change described so the
+ * tool can tell after a crash whether the batch committed. Kept until
+ * the batch commits, and dropped if it is rolled back.
+ */
+public class PendingChanges {
+    private final List<Object[]> rollbackRows = new ArrayList<Object[]>();
+    // a set, so an item with many changed rows gets a single event per commit
+    private final Set<Integer> itemIds = new LinkedHashSet<Integer>();
+    private String probe = "";
+
+    public void rollback(Object... row) {
+        rollbackRows.add(row);
+    }
+
+    public void changedItem(int itemId) {
+        itemIds.add(itemId);
+    }
+
+    // the first probe of a batch is kept
+    public void probe(String change) {
+        if (probe.equals("")) {
+            probe = change;
+        }
+    }
+
+    List<Object[]> getRollbackRows() {
+        return rollbackRows;
+    }
+
+    Set<Integer> getItemIds() {
+        return itemIds;
+    }
+
+    String getProbe() {
+        return probe;
+    }
+
+    void clear() {
+        rollbackRows.clear();
+        itemIds.clear();
+        probe = "";
+    }
+}
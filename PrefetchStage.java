@@ -0,0 +1,75 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefetch stage of a pipelined BatchRunner run.
+ * Prefetches each window on an operation of its own while the writer
+ * applies and commits the window before it, then hands the window on
+ * with what it loaded. Windows keep their order, so rows are applied in
+ * input order. Both queues are bounded, so a slow writer holds back the
+ * prefetch and a slow prefetch holds back the csv parsing.
+ */
+class PrefetchStage<R extends LauncherRow, P> implements Runnable {
+    static final String LOOKUP_QUEUE = "lookup_queue";
+    private final List<List<R>> endOfInput = new ArrayList<List<R>>();
+    private final RowOperation<R, P> operation;
+    private final BatchWorker<R, P> writer;
+    private final LauncherMetrics metrics;
+    private final BlockingQueue<List<List<R>>> queue;
+    private volatile Exception failure;
+
+    PrefetchStage(RowOperation<R, P> operation, BatchWorker<R, P> writer, LauncherMetrics metrics, int queueCapacity) {
+        this.operation = operation;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<List<List<R>>>(queueCapacity);
+    }
+
+    // blocks while the prefetch stage is queueCapacity windows behind
+    void submit(List<List<R>> window) throws Exception {
+        while (!queue.offer(window, 1, TimeUnit.SECONDS)){
+            checkFailure();
+        }
+        metrics.recordQueueDepth(LOOKUP_QUEUE, queue.size());
+    }
+
+    void finish() throws Exception {
+        submit(endOfInput);
+    }
+
+    boolean hasFailed() {
+        return failure != null;
+    }
+
+    void checkFailure() throws Exception {
+        if (failure != null){
+            throw failure;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<List<R>> window = queue.take();
+            while (window != endOfInput){
+                writer.submitPrefetched(window, operation.prefetch(window));
+                window = queue.take();
+            }
+            writer.finish();
+            // the prefetch operation only reads
+            operation.close(false);
+        } catch (Exception e) {
+            failure = e;
+            try {
+                operation.close(false);
+            } catch (Exception closeError) {
+                System.out.println("Could not close lookup context: " + closeError);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The items a BatchItemMapper input names more than once, marked by the
+ * validators of all input ranges. A move is keyed by item, a map or
+ * unmap by item and collection, and only bits over item ids are kept,
+ * one set per target collection, so the memory follows the repository
+ * and not the input. Which row came first is left to a second, ordered
+ * pass over the marked items.
+ */
+class RepeatedRows {
+    // all of a move's rows share one key
+    private static final int ANY_COLLECTION = 0;
+    private final boolean move;
+    private final Map<Integer, BitSet> seen = new HashMap<Integer, BitSet>();
+    private final Map<Integer, BitSet> repeated = new HashMap<Integer, BitSet>();
+
+    RepeatedRows(boolean move) {
+        this.move = move;
+    }
+
+    synchronized void mark(int itemId, int collectionId) {
+        BitSet items = bits(seen, key(collectionId));
+        if (items.get(itemId)) {
+            bits(repeated, key(collectionId)).set(itemId);
+        } else {
+            items.set(itemId);
+        }
+    }
+
+    synchronized boolean isRepeated(int itemId, int collectionId) {
+        BitSet items = repeated.get(key(collectionId));
+        return items != null && items.get(itemId);
+    }
+
+    synchronized boolean isEmpty() {
+        return repeated.isEmpty();
+    }
+
+    // only needed by the validation
+    synchronized void clear() {
+        seen.clear();
+        repeated.clear();
+    }
+
+    private int key(int collectionId) {
+        return move ? ANY_COLLECTION : collectionId;
+    }
+
+    private static BitSet bits(Map<Integer, BitSet> sets, int key) {
+        BitSet items = sets.get(key);
+        if (items == null) {
+            items = new BitSet();
+            sets.put(key, items);
+        }
+        return items;
+    }
+}
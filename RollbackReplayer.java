@@ -0,0 +1,260 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import uiuc.edu.dspace.app.batchItemMapper.BatchItemMapper;
+import uiuc.edu.dspace.app.metadatavalueimport.MetadataValueUpdater;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Undoes a launcher run from its rollback file.
+ * The rollback file is collapsed so every metadata value, or every item
+ * and collection of a mapper run, is restored to its value before the
+ * run, and the result is applied through the launcher itself: a
+ * MetadataValueUpdater rollback with item partitioned worker threads and
+ * batched commits, a BatchItemMapper rollback with the inverse mode. The
+ * replay writes its own rollback file, so it can be undone the same way.
+ * Rows a RollbackWriter marker voided, those of a commit that failed
+ * while other workers were appending theirs, are left out.
+ *
+ * A value that was updated and later deleted in the same run comes back
+ * with the text it had when it was deleted, since rollback rows of
+ * deleted values carry no id to tie them to the earlier update.
+ */
+public class RollbackReplayer {
+    private final String rollbackFileName;
+    private final String replayFileName;
+
+    RollbackReplayer(String rollbackFileName, String replayFileName) {
+        this.rollbackFileName = rollbackFileName;
+        this.replayFileName = replayFileName;
+    }
+
+    public static void main(String[] argv) {
+        int status = 0;
+        try
+        {
+            CommandLineParser parser = new PosixParser();
+            Options options = new Options();
+            options.addOption("f", "file", true, "rollback file of the run to undo");
+            options.addOption("r", "rollback", true, "name of the rollback file for the replay itself");
+            options.addOption("e", "eperson", true, "eperson to perform the undo as");
+            options.addOption("t", "threads", true, "number of MetadataValueUpdater workers (default 4)");
+            options.addOption("b", "batch-size", true, "rows per transaction, or items per collection call for a mapper run (default 100)");
+            options.addOption("w", "reindex-workers", true, "number of workers re-indexing the restored items, 0 to only record their ids (default 2)");
+            options.addOption("k", "keep", false, "keep the collapsed input the launcher was run with");
+            options.addOption("v", "verbose", false, "verbose logging to stdout");
+            options.addOption("h", "help", false, "help");
+            CommandLine line = parser.parse(options, argv);
+            if (line.hasOption('h')){
+                new HelpFormatter().printHelp(RollbackReplayer.class.toString(), options);
+                System.exit(0);
+            }
+            if (!line.hasOption('f') || !line.hasOption('r') || !line.hasOption('e')){
+                System.out.println("-f, -r and -e are required");
+                new HelpFormatter().printHelp(RollbackReplayer.class.toString(), options);
+                System.exit(1);
+            }
+            String in = line.getOptionValue("f");
+            String out = line.getOptionValue("r");
+            if (!new File(in).exists()){
+                System.out.printf("Rollback file %s not found\n", in);
+                System.exit(1);
+            }
+            if (new File(in).getCanonicalPath().equals(new File(out).getCanonicalPath())){
+                System.out.println("The replay needs a rollback file of its own");
+                System.exit(1);
+            }
+            RollbackReplayer replayer = new RollbackReplayer(in, out + ".replay.csv");
+            List<String> launcherArgs = new ArrayList<String>();
+            launcherArgs.add("-f");
+            launcherArgs.add(replayer.replayFileName);
+            launcherArgs.add("-r");
+            launcherArgs.add(out);
+            launcherArgs.add("-e");
+            launcherArgs.add(line.getOptionValue("e"));
+            launcherArgs.add("-w");
+            launcherArgs.add(line.getOptionValue("w", "2"));
+            if (line.hasOption("v")){
+                launcherArgs.add("-v");
+            }
+            try {
+                status = replayer.replay(launcherArgs, line.getOptionValue("t", "4"), line.getOptionValue("b", "100"));
+            } finally {
+                if (!line.hasOption("k")){
+                    new File(replayer.replayFileName).delete();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println(e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private int replay(List<String> launcherArgs, String threads, String batchSize) throws Exception {
+        BitSet voided = voidedRecords();
+        CsvInput input = CsvInput.open(rollbackFileName, Charset.forName("UTF-8"));
+        try {
+            Map<String, Integer> header = input.getHeaderMap();
+            if (header.containsKey("metadata_value_id")){
+                collapseMetadataValues(input, voided);
+                launcherArgs.add("-t");
+                launcherArgs.add(threads);
+                launcherArgs.add("-b");
+                launcherArgs.add(batchSize);
+                return MetadataValueUpdater.run(launcherArgs.toArray(new String[launcherArgs.size()]));
+            }
+            if (header.containsKey("previous_owning_collection")){
+                if (!header.containsKey("mode")){
+                    System.out.println("This mapper rollback file predates the mode column; undo a move by running BatchItemMapper -M on it");
+                    return 1;
+                }
+                String mode = collapseMappings(input, voided);
+                launcherArgs.add(inverseMode(mode));
+                launcherArgs.add("-g");
+                launcherArgs.add(batchSize);
+                return BatchItemMapper.run(launcherArgs.toArray(new String[launcherArgs.size()]));
+            }
+            System.out.printf("%s is not a launcher rollback file\n", rollbackFileName);
+            return 1;
+        } finally {
+            input.close();
+        }
+    }
+
+    // record numbers of the rows of failed commits, and of the markers that voided them
+    BitSet voidedRecords() throws IOException {
+        BitSet voided = new BitSet();
+        long rows = 0;
+        CsvInput input = CsvInput.open(rollbackFileName, Charset.forName("UTF-8"));
+        try {
+            for (CSVRecord record : input) {
+                if (record.get(0).equals(RollbackWriter.VOID_MARKER)) {
+                    int marker = (int) input.getRecordNumber(record);
+                    int first = marker - Integer.parseInt(record.get(1));
+                    int count = Integer.parseInt(record.get(2));
+                    voided.set(first, first + count);
+                    voided.set(marker);
+                    rows += count;
+                }
+            }
+        } finally {
+            input.close();
+        }
+        if (rows > 0) {
+            System.out.printf("Skipping %d rollback rows of commits that failed\n", rows);
+        }
+        return voided;
+    }
+
+    // keeps the first row per metadata_value_id, which holds the value from before the run
+    void collapseMetadataValues(CsvInput input, BitSet voided) throws IOException {
+        BitSet seen = new BitSet();
+        long rows = 0;
+        long kept = 0;
+        CSVPrinter printer = open(Charset.forName("UTF-8"), "metadata_value_id", "text_value", "item_id", "metadata_field_id");
+        try {
+            for (CSVRecord record : input) {
+                if (voided.get((int) input.getRecordNumber(record))) {
+                    continue;
+                }
+                rows++;
+                String id = record.get("metadata_value_id");
+                // rows without an id recreate deleted values and are all kept
+                if (!id.equals("")) {
+                    int valueId = Integer.parseInt(id);
+                    if (seen.get(valueId)) {
+                        continue;
+                    }
+                    seen.set(valueId);
+                }
+                printer.printRecord(id, record.get("text_value"), record.get("item_id"), record.get("metadata_field_id"));
+                kept++;
+            }
+        } finally {
+            printer.close();
+        }
+        System.out.printf("Collapsed %d rollback rows to %d\n", rows, kept);
+    }
+
+    // keeps the first row per item for moves, or per item and collection for maps and unmaps
+    String collapseMappings(CsvInput input, BitSet voided) throws IOException {
+        Set<String> seen = new HashSet<String>();
+        String mode = null;
+        long rows = 0;
+        long kept = 0;
+        long unowned = 0;
+        CSVPrinter printer = open(Charset.forName("UTF-8"), "item_handle", "collection_handle");
+        try {
+            for (CSVRecord record : input) {
+                if (voided.get((int) input.getRecordNumber(record))) {
+                    continue;
+                }
+                rows++;
+                String rowMode = record.get("mode");
+                if (mode == null) {
+                    mode = rowMode;
+                } else if (!mode.equals(rowMode)) {
+                    throw new IllegalArgumentException("Rollback file mixes " + mode + " and " + rowMode + " rows");
+                }
+                String item = record.get("item_id");
+                String collection = mode.equals("move") ? record.get("previous_owning_collection") : record.get("collection");
+                if (!seen.add(mode.equals("move") ? item : item + " " + collection)) {
+                    continue;
+                }
+                if (collection.equals(BatchItemMapper.NO_OWNING_COLLECTION)) {
+                    unowned++;
+                    continue;
+                }
+                printer.printRecord(item, collection);
+                kept++;
+            }
+        } finally {
+            printer.close();
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Rollback file " + rollbackFileName + " has no rows");
+        }
+        System.out.printf("Collapsed %d rollback rows to %d\n", rows, kept);
+        if (unowned > 0) {
+            System.out.printf("Skipping %d items that had no owning collection to move back to\n", unowned);
+        }
+        return mode;
+    }
+
+    private static String inverseMode(String mode) {
+        if (mode.equals("map")) {
+            return "-u";
+        } else if (mode.equals("unmap")) {
+            return "-m";
+        } else if (mode.equals("move")) {
+            return "-M";
+        }
+        throw new IllegalArgumentException("Unknown mapper mode " + mode);
+    }
+
+    private CSVPrinter open(Charset charset, String... header) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(replayFileName), charset), 1 << 16);
+        return CSVFormat.DEFAULT.withHeader(header).print(writer);
+    }
+}
@@ -0,0 +1,126 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Rollback csv shared by the workers of a launcher run.
+ * Rows are appended through a large buffer and only reach the disk on
+ * sync, which the launchers call right before each commit, so the file
+ * covers every committed change without a write per row. A batch's
+ * rows are cut off again when its commit fails, or, when other workers
+ * have appended rows since, voided by a marker row that RollbackReplayer
+ * skips them by; either way no rows for work that was rolled back are
+ * replayed.
+ */
+public class RollbackWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // first cell of a row voiding the rows of a failed commit, followed by how many rows back they start and their count
+    static final String VOID_MARKER = "#void";
+    private final FileOutputStream out;
+    private final BufferedWriter writer;
+    private final CSVPrinter printer;
+    // rows written since the file was opened, markers included
+    private long records = 0;
+
+    /**
+     * The commit of a batch whose rollback rows are written first.
+     */
+    public interface Commit {
+        void run() throws Exception;
+    }
+
+    private RollbackWriter(FileOutputStream out, String... header) throws IOException {
+        this.out = out;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")), BUFFER_SIZE);
+        this.printer = header.length > 0 ? CSVFormat.DEFAULT.withHeader(header).print(writer) : CSVFormat.DEFAULT.print(writer);
+    }
+
+    // starts a new rollback file with the given header
+    public static RollbackWriter create(String fileName, String... header) throws IOException {
+        return new RollbackWriter(new FileOutputStream(fileName), header);
+    }
+
+    // continues a rollback file from a checkpoint; the rows cut off belong to a batch that never committed
+    public static RollbackWriter resume(String fileName, Checkpoint checkpoint) throws IOException {
+        FileOutputStream out = new FileOutputStream(fileName, true);
+        out.getChannel().truncate(checkpoint.getRollbackSize());
+        return new RollbackWriter(out);
+    }
+
+    public synchronized void write(Object... row) throws IOException {
+        printer.printRecord(row);
+        records++;
+    }
+
+    // rows of one batch are kept together in the file
+    public synchronized void write(List<Object[]> rows) throws IOException {
+        for (Object[] row : rows) {
+            printer.printRecord(row);
+        }
+        records += rows.size();
+    }
+
+    /**
+     * Syncs a batch's rows, then runs its commit. If the commit fails
+     * the rows are cut off, or voided if other workers appended rows
+     * after them, before the failure is passed on. Only the append and
+     * sync hold the lock, so the commits of other workers run alongside
+     * this one.
+     */
+    public void commit(List<Object[]> rows, Commit commit) throws Exception {
+        long size;
+        long end;
+        long first;
+        synchronized (this) {
+            printer.flush();
+            size = out.getChannel().size();
+            first = records;
+            write(rows);
+            sync();
+            end = out.getChannel().size();
+        }
+        try {
+            commit.run();
+        } catch (Exception e) {
+            discard(size, end, first, rows.size());
+            throw e;
+        }
+    }
+
+    // the failed batch's rows are the bytes from size to end and the count records from first
+    private synchronized void discard(long size, long end, long first, int count) throws IOException {
+        printer.flush();
+        if (out.getChannel().size() == end) {
+            out.getChannel().truncate(size);
+            out.getChannel().position(size);
+            records = first;
+        } else if (count > 0) {
+            // the marker names the rows by how far back they start, which holds however the file was resumed
+            printer.printRecord(VOID_MARKER, records - first, count);
+            records++;
+            printer.flush();
+        }
+        out.getChannel().force(false);
+    }
+
+    // makes everything written so far durable
+    public synchronized void sync() throws IOException {
+        printer.flush();
+        out.getChannel().force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        printer.close();
+    }
+}
@@ -0,0 +1,36 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One kind of change a launcher applies, run by BatchRunner.
+ * The runner cuts the input into windows and batches, and calls an
+ * operation on one thread at a time: prefetch once per window, apply
+ * once per row, then commit once per batch. Rollback rows and changed
+ * items are recorded through PendingChanges and written by the runner
+ * before the batch commits.
+ *
+ * @param <R> the parsed row
+ * @param <P> what prefetch loads for a window
+ */
+public interface RowOperation<R extends LauncherRow, P> {
+
+    // loads what the rows of a window need in as few queries as possible
+    P prefetch(List<List<R>> window) throws Exception;
+
+    // applies one row, or stages it for commit; returns the counter to increment once the batch commits, or null
+    String apply(R row, P prefetched, PendingChanges changes) throws Exception;
+
+    // commits the batch, changedItemIds being the items recorded for it
+    void commit(Set<Integer> changedItemIds) throws Exception;
+
+    // whether a failed batch can be rolled back and retried row by row
+    boolean isTransactional();
+
+    // drops the uncommitted changes of a failed batch
+    void rollback() throws Exception;
+
+    // called once the operation's thread is done, to release a context of its own
+    void close(boolean succeeded) throws Exception;
+}
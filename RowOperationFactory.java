@@ -0,0 +1,23 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Parses a launcher's input rows and creates the RowOperations that
+ * apply them, one per BatchRunner worker or stage.
+ */
+public interface RowOperationFactory<R extends LauncherRow, P> {
+
+    // parses a record once, on the thread reading the input
+    R parse(CSVRecord record, CsvInput input);
+
+    // rows with the same key go to the same worker in input order, and a full batch is only cut
+    // between keys; a negative key means the row has none
+    int partitionKey(R row);
+
+    // an operation on the launcher's own context, for a run without worker threads
+    RowOperation<R, P> create() throws Exception;
+
+    // an operation on a context of its own, for a worker or stage thread
+    RowOperation<R, P> createWithOwnContext() throws Exception;
+}
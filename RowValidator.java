@@ -0,0 +1,22 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.List;
+
+/**
+ * Pre-flight checks of one range of a launcher's input, run by
+ * InputValidator on a thread of its own. Only reads, so it can run
+ * before anything is written and on several ranges at once.
+ */
+public interface RowValidator<R extends LauncherRow> {
+
+    // parses a record of the range the validator was created for
+    R parse(CSVRecord record);
+
+    // checks a chunk of rows with as few queries as possible, reporting every problem found
+    void check(List<R> rows, ValidationReport report) throws Exception;
+
+    // releases the validator's context
+    void close() throws Exception;
+}
@@ -0,0 +1,10 @@
+package uiuc.edu.dspace.app.launcher;
+
+/**
+ * Creates the RowValidators of a launcher, one per input range.
+ */
+public interface RowValidatorFactory<R extends LauncherRow> {
+
+    // a validator on a context of its own, for the rows of input
+    RowValidator<R> createValidator(CsvInput input) throws Exception;
+}
@@ -0,0 +1,36 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.dspace.app.xmlui.aspect.administrative.FlowMapperUtils;
+import org.dspace.core.Context;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+
+import java.util.List;
+
+/**
+ * Removes items mapped into a collection from it.
+ */
+class UnmapOperation extends MappingOperation {
+
+    UnmapOperation(Context context, HandleLookup lookup, LauncherMetrics metrics, int groupSize, boolean ownsContext) {
+        super(context, lookup, metrics, groupSize, ownsContext);
+    }
+
+    @Override
+    String modeName() {
+        return "unmap";
+    }
+
+    @Override
+    boolean stage(State state, int itemId, int collectionId, String collectionHandle) {
+        if (!state.isMapped(itemId, collectionId)) {
+            return false;
+        }
+        state.setMapped(itemId, collectionId, false);
+        return true;
+    }
+
+    @Override
+    void applyGroup(Context context, int collectionId, List<String> itemIds) throws Exception {
+        FlowMapperUtils.processUnmapItems(context, collectionId, itemIds.toArray(new String[itemIds.size()]));
+    }
+}
@@ -0,0 +1,177 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.apache.commons.csv.CSVRecord;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherRow;
+
+import java.text.Normalizer;
+import java.util.Map;
+
+/**
+ * A MetadataValueUpdater csv row, parsed once when it is read.
+ * Ids are parsed to ints up front and the text is normalized to NFC at
+ * most once, so the row operation, the dry run and the verbose output
+ * don't go back to the record by column name. Malformed ids only fail when the
+ * row is applied, so one bad row does not stop the read.
+ */
+class UpdateRow implements LauncherRow {
+    // id value of an empty cell or a column the file does not have
+    static final int EMPTY = -1;
+    private static final int MALFORMED = -2;
+    final long recordNumber;
+    final long characterPosition;
+    // the cells as read, for messages and reports
+    final String metadataValueIdText;
+    final String rawText;
+    final String itemIdText;
+    final String fieldIdText;
+    final int metadataValueId;
+    final int itemId;
+    final int fieldId;
+    // rawText in NFC, the same instance when it already was
+    final String text;
+    // a row with fewer cells than the header; it fails when applied, like a short record did
+    private final boolean truncated;
+
+    private UpdateRow(Columns columns, CSVRecord record, long recordNumber, long characterPosition) {
+        this.recordNumber = recordNumber;
+        this.characterPosition = characterPosition;
+        this.truncated = record.size() <= Math.max(columns.metadataValueId, columns.text);
+        this.metadataValueIdText = columns.cell(record, columns.metadataValueId);
+        this.rawText = columns.cell(record, columns.text);
+        this.itemIdText = columns.cell(record, columns.itemId);
+        this.fieldIdText = columns.cell(record, columns.fieldId);
+        this.metadataValueId = parseId(metadataValueIdText);
+        this.itemId = parseId(itemIdText);
+        this.fieldId = parseId(fieldIdText);
+        this.text = normalize(rawText);
+    }
+
+    @Override
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public long getCharacterPosition() {
+        return characterPosition;
+    }
+
+    void checkComplete() {
+        if (truncated) {
+            throw new IllegalArgumentException("Row " + recordNumber + " is missing its metadata_value_id or text_value cell");
+        }
+    }
+
+    boolean isNew() {
+        return metadataValueId == EMPTY;
+    }
+
+    boolean hasItemId() {
+        return itemId != EMPTY;
+    }
+
+    boolean hasFieldId() {
+        return fieldId != EMPTY;
+    }
+
+    // the ids below throw like Integer.parseInt did for cells that are not ids
+    int metadataValueId() {
+        return checked(metadataValueId, metadataValueIdText);
+    }
+
+    int itemId() {
+        return checked(itemId, itemIdText);
+    }
+
+    int fieldId() {
+        return checked(fieldId, fieldIdText);
+    }
+
+    private static int checked(int id, String cell) {
+        if (id < 0) {
+            throw new NumberFormatException("For input string: \"" + cell + "\"");
+        }
+        return id;
+    }
+
+    // only ascii digits after an optional '+', as Integer.parseInt took them, up to Integer.MAX_VALUE
+    private static int parseId(String cell) {
+        if (cell.length() == 0) {
+            return EMPTY;
+        }
+        int start = cell.charAt(0) == '+' ? 1 : 0;
+        if (start == cell.length()) {
+            return MALFORMED;
+        }
+        int id = 0;
+        for (int i = start; i < cell.length(); i++) {
+            char c = cell.charAt(i);
+            if (c < '0' || c > '9') {
+                return MALFORMED;
+            }
+            int digit = c - '0';
+            if (id > (Integer.MAX_VALUE - digit) / 10) {
+                return MALFORMED;
+            }
+            id = id * 10 + digit;
+        }
+        return id;
+    }
+
+    // most values are ascii or already composed, and skip the copy Normalizer.normalize would make
+    static String normalize(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return Normalizer.isNormalized(value, Normalizer.Form.NFC) ? value : Normalizer.normalize(value, Normalizer.Form.NFC);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Column positions of an input file, looked up once from its header.
+     */
+    static class Columns {
+        private static final int ABSENT = -1;
+        private final CsvInput input;
+        private final int metadataValueId;
+        private final int text;
+        private final int itemId;
+        private final int fieldId;
+
+        Columns(CsvInput input) {
+            this.input = input;
+            Map<String, Integer> header = input.getHeaderMap();
+            this.metadataValueId = required(header, "metadata_value_id");
+            this.text = required(header, "text_value");
+            this.itemId = optional(header, "item_id");
+            this.fieldId = optional(header, "metadata_field_id");
+        }
+
+        boolean hasItemId() {
+            return itemId != ABSENT;
+        }
+
+        UpdateRow compile(CSVRecord record) {
+            return new UpdateRow(this, record, input.getRecordNumber(record), input.getCharacterPosition(record));
+        }
+
+        private String cell(CSVRecord record, int column) {
+            return column == ABSENT || column >= record.size() ? "" : record.get(column);
+        }
+
+        private static int required(Map<String, Integer> header, String column) {
+            Integer index = header.get(column);
+            if (index == null) {
+                throw new IllegalArgumentException("Input csv has no " + column + " column");
+            }
+            return index;
+        }
+
+        private static int optional(Map<String, Integer> header, String column) {
+            Integer index = header.get(column);
+            return index == null ? ABSENT : index;
+        }
+    }
+}
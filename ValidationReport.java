@@ -0,0 +1,40 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Csv report of the problems a pre-flight validation found, one row per
+ * problem with the input row it was found on. Shared by the validation
+ * threads, so rows of different ranges may interleave.
+ */
+public class ValidationReport implements Closeable {
+    private final CSVPrinter printer;
+    private long problems = 0;
+
+    public ValidationReport(String fileName) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), Charset.forName("UTF-8")), 1 << 16);
+        this.printer = CSVFormat.DEFAULT.withHeader("record_number", "column", "value", "problem").print(writer);
+    }
+
+    public synchronized void problem(long recordNumber, String column, String value, String problem) throws IOException {
+        printer.printRecord(recordNumber, column, value, problem);
+        problems++;
+    }
+
+    public synchronized long getProblems() {
+        return problems;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        printer.close();
+    }
+}
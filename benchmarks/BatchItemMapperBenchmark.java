@@ -0,0 +1,109 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uiuc.edu.dspace.app.launcher.BenchmarkFiles;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of BatchItemMapper against a generated mapping file: parsing
+ * the file, and parsing it with each chunk's handles resolved as the
+ * launcher does before any mapping call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BatchItemMapperBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the defaults run in minutes; larger files and latencies are passed with -p
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"10"})
+    public int collections;
+
+    // simulated round trip of each handle query
+    @Param({"0"})
+    public long latencyMicros;
+
+    private File input;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RowCounter {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        input = BenchmarkFiles.mapperInput(rows, collections);
+    }
+
+    @Benchmark
+    public void readFile(RowCounter counter, Blackhole bh) throws Exception {
+        CsvInput records = CsvInput.open(input.getPath(), UTF8);
+        try {
+            for (CSVRecord record : records) {
+                bh.consume(MappingRow.parse(record, records));
+                counter.rows++;
+            }
+        } finally {
+            records.close();
+        }
+    }
+
+    // the prefetch the launcher runs a chunk ahead of the mapping calls
+    @Benchmark
+    public void resolveHandles(RowCounter counter, Blackhole bh) throws Exception {
+        MappingOperation operation = new MapOperation(null, new InMemoryHandleLookup(collections, latencyMicros),
+                new LauncherMetrics(input.length()), BatchItemMapper.CHUNK_SIZE, false);
+        CsvInput records = CsvInput.open(input.getPath(), UTF8);
+        try {
+            List<MappingRow> chunk = new ArrayList<MappingRow>(BatchItemMapper.CHUNK_SIZE);
+            for (CSVRecord record : records) {
+                chunk.add(MappingRow.parse(record, records));
+                if (chunk.size() == BatchItemMapper.CHUNK_SIZE) {
+                    bh.consume(operation.prefetch(Collections.singletonList(chunk)));
+                    counter.rows += chunk.size();
+                    chunk = new ArrayList<MappingRow>(BatchItemMapper.CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                bh.consume(operation.prefetch(Collections.singletonList(chunk)));
+                counter.rows += chunk.size();
+            }
+        } finally {
+            records.close();
+        }
+    }
+}
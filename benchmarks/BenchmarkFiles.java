@@ -0,0 +1,100 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+
+/**
+ * Generated launcher inputs for the benchmarks, written once per size
+ * to the temp directory and reused across runs.
+ *
+ * The updater file looks like a database export after an edit: ten
+ * values per item, mostly unchanged against the stored values the
+ * stand-in store reports, with some updates, deletes and new values,
+ * and every tenth value decomposed so it needs NFC normalization.
+ */
+public class BenchmarkFiles {
+    public static final int VALUES_PER_ITEM = 10;
+    public static final String HANDLE_PREFIX = "2142/";
+    public static final String COLLECTION_HANDLE_PREFIX = HANDLE_PREFIX + "c";
+    private static final String DECOMPOSED = Normalizer.normalize("Caf\u00e9 r\u00e9sum\u00e9 na\u00efve", Normalizer.Form.NFD);
+
+    public static File updaterInput(int rows) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "metadatavalue-bench-" + rows + ".csv");
+        if (file.exists()) {
+            return file;
+        }
+        CSVPrinter printer = open(file, "metadata_value_id", "text_value", "item_id", "metadata_field_id");
+        try {
+            for (int i = 1; i <= rows; i++) {
+                String id = String.valueOf(i);
+                String value = storedValue(i);
+                if (i % 100 == 0) {
+                    value = "";
+                } else if (i % 100 == 1) {
+                    id = "";
+                } else if (i % 20 == 0) {
+                    value = value + " (edited)";
+                } else if (i % 10 == 0) {
+                    value = DECOMPOSED + " " + i;
+                }
+                printer.printRecord(id, value, itemId(i), fieldId(i));
+            }
+        } finally {
+            printer.close();
+        }
+        return file;
+    }
+
+    public static File mapperInput(int rows, int collections) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "mapper-bench-" + rows + "-" + collections + ".csv");
+        if (file.exists()) {
+            return file;
+        }
+        CSVPrinter printer = open(file, "item_handle", "collection_handle");
+        try {
+            for (int i = 1; i <= rows; i++) {
+                printer.printRecord(itemHandle(i), collectionHandle(i % collections + 1));
+            }
+        } finally {
+            printer.close();
+        }
+        return file;
+    }
+
+    // the value the stand-in store holds for a metadata_value_id
+    public static String storedValue(int id) {
+        if (id % 10 == 0) {
+            return Normalizer.normalize(DECOMPOSED, Normalizer.Form.NFC) + " " + id;
+        }
+        return "Value " + id + " of a typical dc.description field";
+    }
+
+    public static int itemId(int id) {
+        return (id - 1) / VALUES_PER_ITEM + 1;
+    }
+
+    public static int fieldId(int id) {
+        return 64 + id % 5;
+    }
+
+    public static String itemHandle(int itemId) {
+        return HANDLE_PREFIX + itemId;
+    }
+
+    public static String collectionHandle(int collectionId) {
+        return COLLECTION_HANDLE_PREFIX + collectionId;
+    }
+
+    private static CSVPrinter open(File file, String... header) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")), 1 << 16);
+        return CSVFormat.DEFAULT.withHeader(header).print(writer);
+    }
+}
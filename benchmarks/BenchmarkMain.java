@@ -0,0 +1,28 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the launcher benchmarks with the gc profiler attached, so every
+ * result reports its allocation rate next to its rows per second.
+ * Takes the usual JMH command line, e.g. a benchmark regex and
+ * -p rows=1000000,10000000 -p latencyMicros=200 for the large runs the
+ * defaults leave out; without a regex every launcher benchmark runs.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] argv) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(argv);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include("uiuc.edu.dspace.app");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,66 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+import uiuc.edu.dspace.app.launcher.BenchmarkFiles;
+import uiuc.edu.dspace.app.launcher.SimulatedLatency;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HandleLookup stand-in for the benchmarks.
+ * Handles are resolved from the numbers BenchmarkFiles puts in them,
+ * each call paying a configurable latency in place of the database.
+ */
+class InMemoryHandleLookup implements HandleLookup {
+    private final int collections;
+    private final SimulatedLatency latency;
+
+    InMemoryHandleLookup(int collections, long latencyMicros) {
+        this.collections = collections;
+        this.latency = new SimulatedLatency(latencyMicros);
+    }
+
+    @Override
+    public int resolveCollection(String collectionHandle) {
+        latency.pause();
+        if (!collectionHandle.startsWith(BenchmarkFiles.COLLECTION_HANDLE_PREFIX)) {
+            return -1;
+        }
+        return Integer.parseInt(collectionHandle.substring(BenchmarkFiles.COLLECTION_HANDLE_PREFIX.length()));
+    }
+
+    @Override
+    public Map<String, ResolvedItem> resolveItems(Set<String> itemHandles) {
+        latency.pause();
+        Map<String, ResolvedItem> items = new HashMap<String, ResolvedItem>(itemHandles.size() * 2);
+        for (String handle : itemHandles) {
+            int id = Integer.parseInt(handle.substring(BenchmarkFiles.HANDLE_PREFIX.length()));
+            items.put(handle, new ResolvedItem(handle, id, BenchmarkFiles.collectionHandle(collections + 1)));
+        }
+        return items;
+    }
+
+    // items are only in their owning collection, one past the collections the input maps into
+    @Override
+    public Set<Long> resolveMappings(Set<Integer> itemIds) {
+        latency.pause();
+        Set<Long> mappings = new HashSet<Long>(itemIds.size() * 2);
+        for (int id : itemIds) {
+            mappings.add(HandleResolver.mappingKey(id, collections + 1));
+        }
+        return mappings;
+    }
+
+    @Override
+    public Map<Integer, String> resolveOwners(Set<Integer> itemIds) {
+        latency.pause();
+        Map<Integer, String> owners = new HashMap<Integer, String>(itemIds.size() * 2);
+        for (int id : itemIds) {
+            owners.put(id, BenchmarkFiles.collectionHandle(collections + 1));
+        }
+        return owners;
+    }
+}
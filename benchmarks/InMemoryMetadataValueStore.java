@@ -0,0 +1,98 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.dspace.content.MetadataValue;
+import org.dspace.storage.rdbms.TableRow;
+import uiuc.edu.dspace.app.launcher.BenchmarkFiles;
+import uiuc.edu.dspace.app.launcher.SimulatedLatency;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MetadataValueStore stand-in for the benchmarks.
+ * Stored values are derived from their id, so memory use does not grow
+ * with the number of rows, and every call pays a configurable latency
+ * in place of the database round trip.
+ */
+class InMemoryMetadataValueStore implements MetadataValueStore {
+    private static final List<String> COLUMNS = Arrays.asList("metadata_value_id", "resource_id", "resource_type_id",
+            "metadata_field_id", "text_value", "text_lang", "place", "authority", "confidence");
+    private final int rows;
+    private final SimulatedLatency readLatency;
+    private final SimulatedLatency writeLatency;
+    private final SimulatedLatency commitLatency;
+    long writes = 0;
+    long commits = 0;
+
+    InMemoryMetadataValueStore(int rows, long readMicros, long writeMicros, long commitMicros) {
+        this.rows = rows;
+        this.readLatency = new SimulatedLatency(readMicros);
+        this.writeLatency = new SimulatedLatency(writeMicros);
+        this.commitLatency = new SimulatedLatency(commitMicros);
+    }
+
+    @Override
+    public void load(List<Integer> ids, IntObjectMap<MetadataValue> into) {
+        readLatency.pause();
+        for (int id : ids) {
+            if (id <= rows) {
+                into.put(id, stored(id));
+            }
+        }
+    }
+
+    @Override
+    public MetadataValue find(int id) {
+        readLatency.pause();
+        return id <= rows ? stored(id) : null;
+    }
+
+    @Override
+    public void create(MetadataValue mdv) {
+        write();
+    }
+
+    @Override
+    public void update(MetadataValue mdv) {
+        write();
+    }
+
+    @Override
+    public void delete(MetadataValue mdv) {
+        write();
+    }
+
+    @Override
+    public void commit(Set<Integer> changedItemIds) {
+        commitLatency.pause();
+        commits++;
+    }
+
+    @Override
+    public void rollback() {
+        commitLatency.pause();
+    }
+
+    @Override
+    public void close(boolean succeeded) {
+    }
+
+    private void write() {
+        writeLatency.pause();
+        writes++;
+    }
+
+    static MetadataValue stored(int id) {
+        TableRow row = new TableRow("metadatavalue", COLUMNS);
+        row.setColumn("metadata_value_id", id);
+        row.setColumn("resource_id", BenchmarkFiles.itemId(id));
+        row.setColumn("resource_type_id", 2);
+        row.setColumn("metadata_field_id", BenchmarkFiles.fieldId(id));
+        row.setColumn("text_value", BenchmarkFiles.storedValue(id));
+        row.setColumn("text_lang", "en");
+        row.setColumn("place", 1);
+        row.setColumn("confidence", -1);
+        return new MetadataValue(row);
+    }
+}
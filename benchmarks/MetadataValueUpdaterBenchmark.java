@@ -0,0 +1,226 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.apache.commons.csv.CSVRecord;
+import org.dspace.content.MetadataValue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import uiuc.edu.dspace.app.launcher.BatchRunner;
+import uiuc.edu.dspace.app.launcher.BenchmarkFiles;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.ItemIdSet;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.RollbackWriter;
+import uiuc.edu.dspace.app.launcher.RowOperation;
+import uiuc.edu.dspace.app.launcher.RowOperationFactory;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of MetadataValueUpdater against a generated input file.
+ * Each invocation works through the whole file, and the rows counter
+ * reports the rate in rows per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MetadataValueUpdaterBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SAMPLE_SIZE = 100000;
+
+    // the defaults run in minutes; larger files, latencies and batch size 1 are passed with -p
+    @Param({"10000", "100000"})
+    public int rows;
+
+    // simulated round trip of each find, write and commit
+    @Param({"0"})
+    public long latencyMicros;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private File input;
+    private File rollbackFile;
+    // the rowCanBeSkipped pairs are a fixed size sample, so memory does not grow with the file
+    private List<UpdateRow> sampleRows;
+    private List<MetadataValue> sampleValues;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RowCounter {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        input = BenchmarkFiles.updaterInput(rows);
+        rollbackFile = File.createTempFile("metadatavalue-bench-rollback", ".csv");
+        sampleRows = new ArrayList<UpdateRow>();
+        sampleValues = new ArrayList<MetadataValue>();
+        CsvInput records = CsvInput.open(input.getPath(), UTF8);
+        try {
+            UpdateRow.Columns columns = new UpdateRow.Columns(records);
+            for (CSVRecord record : records) {
+                if (sampleRows.size() == SAMPLE_SIZE) {
+                    break;
+                }
+                UpdateRow row = columns.compile(record);
+                if (!row.isNew()) {
+                    sampleRows.add(row);
+                    sampleValues.add(InMemoryMetadataValueStore.stored(row.metadataValueId()));
+                }
+            }
+        } finally {
+            records.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rollbackFile.delete();
+    }
+
+    @Benchmark
+    public void parseAndNormalize(RowCounter counter, Blackhole bh) throws Exception {
+        CsvInput records = CsvInput.open(input.getPath(), UTF8);
+        try {
+            UpdateRow.Columns columns = new UpdateRow.Columns(records);
+            for (CSVRecord record : records) {
+                bh.consume(columns.compile(record));
+                counter.rows++;
+            }
+        } finally {
+            records.close();
+        }
+    }
+
+    // the same parse over byte ranges of the file, one thread per range
+    @Benchmark
+    public void parseInParallel(RowCounter counter, final Blackhole bh) throws Exception {
+        List<CsvInput> ranges = CsvInput.split(input.getPath(), UTF8, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        try {
+            List<Future<Long>> parsed = new ArrayList<Future<Long>>();
+            for (final CsvInput range : ranges) {
+                parsed.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long rows = 0;
+                        try {
+                            UpdateRow.Columns columns = new UpdateRow.Columns(range);
+                            for (CSVRecord record : range) {
+                                bh.consume(columns.compile(record));
+                                rows++;
+                            }
+                        } finally {
+                            range.close();
+                        }
+                        return rows;
+                    }
+                }));
+            }
+            for (Future<Long> rows : parsed) {
+                counter.rows += rows.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void rowCanBeSkipped(RowCounter counter, Blackhole bh) {
+        for (int i = 0; i < sampleRows.size(); i++) {
+            bh.consume(MetadataValueOperation.rowCanBeSkipped(sampleValues.get(i), sampleRows.get(i)));
+        }
+        counter.rows += sampleRows.size();
+    }
+
+    // rollback rows written and synced a batch at a time, as the worker does before each commit
+    @Benchmark
+    public void writeRollback(RowCounter counter) throws Exception {
+        RollbackWriter rollback = RollbackWriter.create(rollbackFile.getPath(), "metadata_value_id", "text_value", "item_id", "metadata_field_id");
+        try {
+            List<Object[]> pending = new ArrayList<Object[]>(batchSize);
+            for (int id = 1; id <= rows; id++) {
+                pending.add(new Object[]{String.valueOf(id), BenchmarkFiles.storedValue(id), BenchmarkFiles.itemId(id), BenchmarkFiles.fieldId(id)});
+                if (pending.size() == batchSize) {
+                    rollback.write(pending);
+                    rollback.sync();
+                    pending.clear();
+                }
+            }
+            rollback.write(pending);
+            rollback.sync();
+        } finally {
+            rollback.close();
+        }
+        counter.rows += rows;
+    }
+
+    // the whole updater path: parse, prefetch, compare, apply, rollback and commit
+    @Benchmark
+    public void applyFile(RowCounter counter) throws Exception {
+        final InMemoryMetadataValueStore store = new InMemoryMetadataValueStore(rows, latencyMicros, latencyMicros, latencyMicros);
+        final LauncherMetrics metrics = new LauncherMetrics(input.length());
+        RollbackWriter rollback = RollbackWriter.create(rollbackFile.getPath(), "metadata_value_id", "text_value", "item_id", "metadata_field_id");
+        CsvInput records = CsvInput.open(input.getPath(), UTF8);
+        try {
+            final UpdateRow.Columns columns = new UpdateRow.Columns(records);
+            RowOperationFactory<UpdateRow, IntObjectMap<MetadataValue>> factory = new RowOperationFactory<UpdateRow, IntObjectMap<MetadataValue>>() {
+                @Override
+                public UpdateRow parse(CSVRecord record, CsvInput input) {
+                    return columns.compile(record);
+                }
+
+                @Override
+                public int partitionKey(UpdateRow row) {
+                    return row.itemId;
+                }
+
+                @Override
+                public RowOperation<UpdateRow, IntObjectMap<MetadataValue>> create() {
+                    return new MetadataValueOperation(store, metrics, false, MetadataValueOperation.PREFETCH_QUERY_SIZE, false);
+                }
+
+                @Override
+                public RowOperation<UpdateRow, IntObjectMap<MetadataValue>> createWithOwnContext() {
+                    return create();
+                }
+            };
+            new BatchRunner<UpdateRow, IntObjectMap<MetadataValue>>(factory, rollback, metrics, new ItemIdSet(), null,
+                    batchSize, MetadataValueOperation.PREFETCH_QUERY_SIZE, 1, false).run(records);
+        } finally {
+            records.close();
+            rollback.close();
+        }
+        counter.rows += metrics.get(LauncherMetrics.ROWS);
+    }
+}
@@ -0,0 +1,29 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for the round trip of a database call in the benchmarks.
+ * Short pauses spin, since parking can't wake up that precisely.
+ */
+public class SimulatedLatency {
+    private static final long SPIN_LIMIT_NANOS = 50000;
+    private final long nanos;
+
+    public SimulatedLatency(long micros) {
+        this.nanos = micros * 1000;
+    }
+
+    public void pause() {
+        if (nanos == 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        if (nanos > SPIN_LIMIT_NANOS) {
+            LockSupport.parkNanos(nanos - SPIN_LIMIT_NANOS);
+        }
+        while (System.nanoTime() < deadline) {
+            // spin for the remainder
+        }
+    }
+}
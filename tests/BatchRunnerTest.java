@@ -0,0 +1,144 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BatchRunner against an operation that only records rollback rows, so
+ * the rollback file and checkpoint a run leaves can be checked.
+ */
+public class BatchRunnerTest {
+    // the operation's commits fail for any batch holding this id
+    private static final int BAD_ID = 3;
+
+    @Test
+    public void aFailedBatchLeavesRollbackRowsOnlyForTheRowsThatCommitted() throws Exception {
+        String rollbackFileName = TestFiles.fileName("rollback");
+        run(rollbackFileName, 1);
+
+        // the batch 1-4 failed and was retried row by row, row 3 was skipped
+        assertEquals(Arrays.asList("id", "1", "2", "4", "5", "6"), TestFiles.lines(rollbackFileName));
+    }
+
+    @Test
+    public void aThreadedRunMarksItsCheckpointComplete() throws Exception {
+        String rollbackFileName = TestFiles.fileName("rollback");
+        run(rollbackFileName, 2);
+
+        Checkpoint checkpoint = new Checkpoint(rollbackFileName);
+        assertTrue(checkpoint.load());
+        assertTrue(checkpoint.isComplete());
+    }
+
+    @Test
+    public void anInlineRunMarksItsCheckpointComplete() throws Exception {
+        String rollbackFileName = TestFiles.fileName("rollback");
+        run(rollbackFileName, 1);
+
+        Checkpoint checkpoint = new Checkpoint(rollbackFileName);
+        assertTrue(checkpoint.load());
+        assertTrue(checkpoint.isComplete());
+        assertEquals(6, checkpoint.getRecordNumber());
+    }
+
+    private static void run(String rollbackFileName, int threads) throws Exception {
+        File input = TestFiles.write("input", "id", "1", "2", "3", "4", "5", "6");
+        RollbackWriter rollback = RollbackWriter.create(rollbackFileName, "id");
+        CsvInput records = CsvInput.open(input.getPath(), TestFiles.UTF8);
+        try {
+            new BatchRunner<Row, Void>(new Factory(), rollback, new LauncherMetrics(input.length()), new ItemIdSet(),
+                    new Checkpoint(rollbackFileName), 4, 4, threads, false).run(records);
+        } finally {
+            records.close();
+            rollback.close();
+        }
+    }
+
+    private static class Row implements LauncherRow {
+        private final int id;
+        private final long recordNumber;
+        private final long characterPosition;
+
+        private Row(int id, long recordNumber, long characterPosition) {
+            this.id = id;
+            this.recordNumber = recordNumber;
+            this.characterPosition = characterPosition;
+        }
+
+        @Override
+        public long getRecordNumber() {
+            return recordNumber;
+        }
+
+        @Override
+        public long getCharacterPosition() {
+            return characterPosition;
+        }
+    }
+
+    private static class Factory implements RowOperationFactory<Row, Void> {
+        @Override
+        public Row parse(CSVRecord record, CsvInput input) {
+            return new Row(Integer.parseInt(record.get("id")), input.getRecordNumber(record), input.getCharacterPosition(record));
+        }
+
+        // every row is a key of its own, so the rows are spread over the threads
+        @Override
+        public int partitionKey(Row row) {
+            return row.id;
+        }
+
+        @Override
+        public RowOperation<Row, Void> create() {
+            return new Operation();
+        }
+
+        @Override
+        public RowOperation<Row, Void> createWithOwnContext() {
+            return new Operation();
+        }
+    }
+
+    private static class Operation implements RowOperation<Row, Void> {
+        @Override
+        public Void prefetch(List<List<Row>> window) {
+            return null;
+        }
+
+        @Override
+        public String apply(Row row, Void prefetched, PendingChanges changes) {
+            changes.rollback(row.id);
+            changes.changedItem(row.id);
+            return LauncherMetrics.UPDATED;
+        }
+
+        @Override
+        public void commit(Set<Integer> changedItemIds) throws SQLException {
+            if (changedItemIds.contains(BAD_ID)) {
+                throw new SQLException("row " + BAD_ID + " can't be committed");
+            }
+        }
+
+        @Override
+        public boolean isTransactional() {
+            return true;
+        }
+
+        @Override
+        public void rollback() {
+        }
+
+        @Override
+        public void close(boolean succeeded) {
+        }
+    }
+}
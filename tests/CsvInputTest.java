@@ -0,0 +1,136 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Splitting an input into ranges and resuming it from a checkpoint keep
+ * every row once, with the record number and position it has in the
+ * whole file.
+ */
+public class CsvInputTest {
+
+    @Test
+    public void rangesCoverEveryRowOnceInFileOrder() throws Exception {
+        File file = input(1000);
+        List<String> rows = new ArrayList<String>();
+        List<Long> recordNumbers = new ArrayList<Long>();
+        List<CsvInput> ranges = CsvInput.split(file.getPath(), TestFiles.UTF8, 4);
+        assertEquals(4, ranges.size());
+        for (CsvInput range : ranges) {
+            try {
+                for (CSVRecord record : range) {
+                    rows.add(record.get("id") + "|" + record.get("text"));
+                    recordNumbers.add(range.getRecordNumber(record));
+                }
+            } finally {
+                range.close();
+            }
+        }
+        assertEquals(rows(file), rows);
+        for (int i = 0; i < recordNumbers.size(); i++) {
+            assertEquals(i + 1, (long) recordNumbers.get(i));
+        }
+    }
+
+    @Test
+    public void rangesSkipBlankLinesAsTheParserDoes() throws Exception {
+        String[] lines = new String[301];
+        lines[0] = "\nid,text";
+        for (int i = 1; i <= 300; i++) {
+            lines[i] = i % 5 == 0 ? "\n\r\n" + i + ",\"quoted\n\nblank line\"" : i + ",row " + i;
+        }
+        File file = TestFiles.write("input", lines);
+        List<String> rows = new ArrayList<String>();
+        List<Long> recordNumbers = new ArrayList<Long>();
+        for (CsvInput range : CsvInput.split(file.getPath(), TestFiles.UTF8, 4)) {
+            try {
+                for (CSVRecord record : range) {
+                    rows.add(record.get("id") + "|" + record.get("text"));
+                    recordNumbers.add(range.getRecordNumber(record));
+                }
+            } finally {
+                range.close();
+            }
+        }
+        assertEquals(rows(file), rows);
+        for (int i = 0; i < recordNumbers.size(); i++) {
+            assertEquals(i + 1, (long) recordNumbers.get(i));
+        }
+    }
+
+    @Test
+    public void bytePositionReachesTheFileLength() throws Exception {
+        File file = input(100);
+        CsvInput input = CsvInput.open(file.getPath(), TestFiles.UTF8);
+        try {
+            for (CSVRecord record : input) {
+                assertTrue(input.getBytePosition() <= file.length());
+            }
+            assertEquals(file.length(), input.getBytePosition());
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void resumeStartsAfterTheCheckpointedRow() throws Exception {
+        File file = input(100);
+        String rollbackFileName = TestFiles.fileName("rollback");
+        CsvInput input = CsvInput.open(file.getPath(), TestFiles.UTF8);
+        Checkpoint checkpoint = new Checkpoint(rollbackFileName);
+        try {
+            for (CSVRecord record : input) {
+                if (input.getRecordNumber(record) == 40) {
+                    checkpoint.save(40, input.getCharacterPosition(record));
+                    break;
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        CsvInput resumed = CsvInput.resume(file.getPath(), TestFiles.UTF8, checkpoint);
+        List<String> rows = new ArrayList<String>();
+        long recordNumber = 40;
+        try {
+            for (CSVRecord record : resumed) {
+                rows.add(record.get("id") + "|" + record.get("text"));
+                assertEquals(++recordNumber, resumed.getRecordNumber(record));
+            }
+        } finally {
+            resumed.close();
+        }
+        assertEquals(rows(file).subList(40, 100), rows);
+    }
+
+    // rows with quoted newlines and multi-byte text, so ranges can't be cut at any line
+    private static File input(int rows) throws Exception {
+        String[] lines = new String[rows + 1];
+        lines[0] = "id,text";
+        for (int i = 1; i <= rows; i++) {
+            lines[i] = i % 7 == 0 ? i + ",\"line one\nline two, \u00e9\"" : i + ",caf\u00e9 " + i;
+        }
+        return TestFiles.write("input", lines);
+    }
+
+    private static List<String> rows(File file) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        CsvInput input = CsvInput.open(file.getPath(), TestFiles.UTF8);
+        try {
+            for (CSVRecord record : input) {
+                rows.add(record.get("id") + "|" + record.get("text"));
+            }
+        } finally {
+            input.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,60 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Storing the ids of changed items and reading them back.
+ */
+public class ItemIdSetTest {
+
+    @Test
+    public void readsBackTheIdsItWrote() throws Exception {
+        String fileName = TestFiles.fileName("reindex");
+        ItemIdSet ids = new ItemIdSet();
+        ids.add(3);
+        ids.addAll(Arrays.asList(70, 1000000, 3));
+        ids.write(fileName);
+
+        ItemIdSet read = ItemIdSet.read(fileName);
+
+        assertArrayEquals(new int[]{3, 70, 1000000}, read.toArray());
+        assertEquals(3, read.size());
+    }
+
+    @Test
+    public void readsAMissingFileAsEmpty() throws Exception {
+        assertEquals(0, ItemIdSet.read(TestFiles.fileName("reindex")).size());
+    }
+
+    @Test
+    public void keepsOnlyTheIdsNotRemoved() throws Exception {
+        String fileName = TestFiles.fileName("reindex");
+        ItemIdSet ids = new ItemIdSet();
+        ids.addAll(Arrays.asList(1, 2, 64, 65));
+        ids.write(fileName);
+
+        // as a re-index stores what is left after each chunk
+        ItemIdSet left = ItemIdSet.read(fileName);
+        left.remove(new int[]{1, 65});
+        left.write(fileName);
+
+        assertArrayEquals(new int[]{2, 64}, ItemIdSet.read(fileName).toArray());
+    }
+
+    @Test
+    public void addsTheIdsOfAnotherSet() throws Exception {
+        ItemIdSet ids = new ItemIdSet();
+        ids.add(5);
+        ItemIdSet other = new ItemIdSet();
+        other.addAll(Arrays.asList(5, 9));
+
+        ids.addAll(other);
+
+        assertArrayEquals(new int[]{5, 9}, ids.toArray());
+    }
+}
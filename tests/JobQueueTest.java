@@ -0,0 +1,42 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * How a manifest's args column is split into launcher arguments.
+ */
+public class JobQueueTest {
+
+    @Test
+    public void splitsOnRunsOfWhitespace() {
+        assertEquals(Arrays.asList("-t", "8", "-b", "500"), JobQueue.splitArgs("  -t 8\t-b   500 "));
+    }
+
+    @Test
+    public void keepsQuotedWhitespaceInOneArgument() {
+        assertEquals(Arrays.asList("-x", "/data/my errors.csv", "-p"), JobQueue.splitArgs("-x \"/data/my errors.csv\" -p"));
+        assertEquals(Arrays.asList("-x", "it's here"), JobQueue.splitArgs("-x \"it's here\""));
+        assertEquals(Arrays.asList("-x", "say \"hi\""), JobQueue.splitArgs("-x 'say \"hi\"'"));
+    }
+
+    @Test
+    public void joinsQuotedPartsOfAnArgument() {
+        assertEquals(Arrays.asList("--file=/a b/c.csv"), JobQueue.splitArgs("--file=\"/a b\"/c.csv"));
+    }
+
+    @Test
+    public void keepsAnEmptyQuotedArgument() {
+        assertEquals(Arrays.asList("-x", ""), JobQueue.splitArgs("-x \"\""));
+        assertEquals(Collections.<String>emptyList(), JobQueue.splitArgs("   "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnclosedQuote() {
+        JobQueue.splitArgs("-x \"/data/my errors.csv");
+    }
+}
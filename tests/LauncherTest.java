@@ -0,0 +1,43 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.junit.Test;
+import uiuc.edu.dspace.app.metadatavalueimport.MetadataValueUpdater;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Which launcher runs validate their whole input before they start.
+ */
+public class LauncherTest {
+
+    @Test
+    public void anUpdaterRunValidatesItsInput() throws Exception {
+        assertTrue(updater().validatesInput(line("-r", "rollback.csv")));
+    }
+
+    @Test
+    public void aDryRunLeavesInvalidRowsToItsReport() throws Exception {
+        assertFalse(updater().validatesInput(line("-d", "report.csv")));
+    }
+
+    @Test
+    public void noValidationSkipsIt() throws Exception {
+        assertFalse(updater().validatesInput(line("-r", "rollback.csv", "-n")));
+    }
+
+    private static Launcher updater() {
+        return new MetadataValueUpdater();
+    }
+
+    private static CommandLine line(String... argv) throws Exception {
+        Options options = new Options();
+        options.addOption("r", "rollback", true, "");
+        options.addOption("d", "dry-run", true, "");
+        options.addOption("n", "no-validation", false, "");
+        return new PosixParser().parse(options, argv);
+    }
+}
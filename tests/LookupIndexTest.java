@@ -0,0 +1,149 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.dspace.core.Constants;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Building a LookupIndex from a stand-in database, reading it back, and
+ * ignoring it once the repository's token has moved on.
+ */
+public class LookupIndexTest {
+
+    @Test
+    public void answersTheLookupsItWasBuiltFrom() throws Exception {
+        Database database = new Database();
+        String fileName = TestFiles.fileName("index");
+        assertNull(LookupIndex.open(database.connection(), fileName));
+
+        LookupIndex index = LookupIndex.warm(database.connection(), fileName);
+
+        LookupIndex.HandleEntry item = index.findHandle("123/5");
+        assertEquals(Constants.ITEM, item.type);
+        assertEquals(50, item.id);
+        assertEquals("123/1", item.owningCollectionHandle);
+        LookupIndex.HandleEntry collection = index.findHandle("123/1");
+        assertEquals(Constants.COLLECTION, collection.type);
+        assertEquals(7, collection.id);
+        assertNull(collection.owningCollectionHandle);
+        assertNull(index.findHandle("123/2"));
+        assertNull(index.findHandle("123/50"));
+
+        assertEquals(50, index.itemOf(2));
+        assertEquals(50, index.itemOf(3));
+        assertEquals(51, index.itemOf(9));
+        // gaps, ids past the largest one and negative ids aren't item values
+        assertEquals(-1, index.itemOf(0));
+        assertEquals(-1, index.itemOf(4));
+        assertEquals(-1, index.itemOf(10));
+        assertEquals(-1, index.itemOf(-1));
+    }
+
+    @Test
+    public void isIgnoredOnceTheRepositoryChanges() throws Exception {
+        Database database = new Database();
+        String fileName = TestFiles.fileName("index");
+        LookupIndex.warm(database.connection(), fileName);
+        assertNotNull(LookupIndex.open(database.connection(), fileName));
+
+        // a move updates the item's last_modified
+        database.lastModified = "2026-02-01 00:00:00";
+        assertNull(LookupIndex.open(database.connection(), fileName));
+
+        LookupIndex rebuilt = LookupIndex.warm(database.connection(), fileName);
+        assertNotNull(rebuilt);
+        assertNotNull(LookupIndex.open(database.connection(), fileName));
+    }
+
+    // answers the index's queries from fixed rows, told apart by their text
+    private static class Database {
+        private String lastModified = "2026-01-01 00:00:00";
+
+        private List<String[]> rows(String query) {
+            List<String[]> rows = new ArrayList<String[]>();
+            if (query.contains("last_modified")) {
+                rows.add(new String[]{lastModified});
+            } else if (query.contains("max(handle_id)")) {
+                rows.add(new String[]{"3", "3"});
+            } else if (query.contains("max(metadata_value_id), count(*)")) {
+                rows.add(new String[]{"9", "3"});
+            } else if (query.contains("max(metadata_value_id)")) {
+                rows.add(new String[]{"9"});
+            } else if (query.contains("FROM handle h")) {
+                rows.add(new String[]{"123/5", String.valueOf(Constants.ITEM), "50", "123/1"});
+                rows.add(new String[]{"123/1", String.valueOf(Constants.COLLECTION), "7", null});
+                rows.add(new String[]{"123/10", String.valueOf(Constants.ITEM), "51", null});
+            } else if (query.contains("FROM metadatavalue")) {
+                rows.add(new String[]{"2", "50"});
+                rows.add(new String[]{"3", "50"});
+                rows.add(new String[]{"9", "51"});
+            } else {
+                throw new IllegalArgumentException("Unexpected query " + query);
+            }
+            return rows;
+        }
+
+        Connection connection() {
+            return proxy(Connection.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object connection, Method method, Object[] args) {
+                    // a prepared statement's query is known up front, a plain one's when it is run
+                    final String prepared = args != null && args.length > 0 ? (String) args[0] : null;
+                    return proxy(method.getReturnType(), new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object statement, Method method, Object[] args) {
+                            if (method.getName().equals("executeQuery")) {
+                                return resultSet(rows(args == null ? prepared : (String) args[0]));
+                            }
+                            return null;
+                        }
+                    });
+                }
+            });
+        }
+
+        private static ResultSet resultSet(final List<String[]> rows) {
+            return proxy(ResultSet.class, new InvocationHandler() {
+                private int row = -1;
+
+                @Override
+                public Object invoke(Object resultSet, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("next")) {
+                        return ++row < rows.size();
+                    } else if (name.equals("getString")) {
+                        return rows.get(row)[(Integer) args[0] - 1];
+                    } else if (name.equals("getInt")) {
+                        String value = rows.get(row)[(Integer) args[0] - 1];
+                        return value == null ? 0 : Integer.parseInt(value);
+                    } else if (name.equals("getMetaData")) {
+                        return proxy(ResultSetMetaData.class, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object metaData, Method method, Object[] args) {
+                                return rows.get(0).length;
+                            }
+                        });
+                    }
+                    return null;
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return (T) Proxy.newProxyInstance(LookupIndexTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+        }
+    }
+}
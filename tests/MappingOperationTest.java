@@ -0,0 +1,173 @@
+package uiuc.edu.dspace.app.batchItemMapper;
+
+import org.apache.commons.csv.CSVRecord;
+import org.dspace.core.Context;
+import org.junit.Test;
+import uiuc.edu.dspace.app.batchItemMapper.HandleResolver.ResolvedItem;
+import uiuc.edu.dspace.app.launcher.BatchRunner;
+import uiuc.edu.dspace.app.launcher.Checkpoint;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.ItemIdSet;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.RollbackWriter;
+import uiuc.edu.dspace.app.launcher.RowOperation;
+import uiuc.edu.dspace.app.launcher.RowOperationFactory;
+import uiuc.edu.dspace.app.launcher.TestFiles;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The mapper's rollback rows against a repository where item 1 is
+ * already mapped into collection 10 and every item is owned by
+ * collection 1: only rows that change an item get a rollback row and
+ * reach the collection calls.
+ */
+public class MappingOperationTest {
+    private static final String HEADER = "item_id,previous_owning_collection,mode,collection";
+
+    @Test
+    public void mapSkipsItemsAlreadyInTheCollection() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        LauncherMetrics metrics = metrics();
+        List<String> rollback = run(new MapOperation(null, new Repository(), metrics, 100, false) {
+            @Override
+            void applyGroup(Context context, int collectionId, List<String> itemIds) {
+                record(calls, collectionId, itemIds);
+            }
+        }, "h/1,c/10", "h/2,c/10", "h/2,c/10", "h/3,c/1");
+
+        assertEquals(Arrays.asList(HEADER, "h/2,c/1,map,c/10"), rollback);
+        assertEquals(Arrays.asList("10:[2]"), calls);
+        // the window's handles are resolved once each, and the lookups reach the run's counters
+        assertEquals(2, metrics.get(HandleResolver.COLLECTION_CACHE_MISSES));
+        assertEquals(0, metrics.get(HandleResolver.COLLECTION_CACHE_HITS));
+        assertEquals(1, metrics.get(HandleResolver.ITEM_HANDLE_QUERIES));
+        assertEquals(3, metrics.get(HandleResolver.ITEM_HANDLES_RESOLVED));
+    }
+
+    @Test
+    public void unmapSkipsItemsNotInTheCollection() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        List<String> rollback = run(new UnmapOperation(null, new Repository(), metrics(), 100, false) {
+            @Override
+            void applyGroup(Context context, int collectionId, List<String> itemIds) {
+                record(calls, collectionId, itemIds);
+            }
+        }, "h/1,c/10", "h/1,c/10", "h/2,c/10");
+
+        assertEquals(Arrays.asList(HEADER, "h/1,c/1,unmap,c/10"), rollback);
+        assertEquals(Arrays.asList("10:[1]"), calls);
+    }
+
+    @Test
+    public void moveSkipsItemsAlreadyOwnedByTheCollection() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        List<String> rollback = run(new MoveOperation(null, new Repository(), metrics(), 100, false) {
+            @Override
+            void applyGroup(Context context, int collectionId, List<String> itemIds) {
+                record(calls, collectionId, itemIds);
+            }
+        }, "h/1,c/1", "h/2,c/20", "h/2,c/30", "h/3,c/20");
+
+        // the second move of item 2 is undone to the owner the first one left it with
+        assertEquals(Arrays.asList(HEADER, "h/2,c/1,move,c/20", "h/2,c/20,move,c/30", "h/3,c/1,move,c/20"), rollback);
+        assertEquals(Arrays.asList("20:[2, 3]", "30:[2]"), calls);
+    }
+
+    private static LauncherMetrics metrics() {
+        return new LauncherMetrics(-1);
+    }
+
+    private static void record(List<String> calls, int collectionId, List<String> itemIds) {
+        calls.add(collectionId + ":" + itemIds);
+    }
+
+    private static List<String> run(final MappingOperation operation, String... rows) throws Exception {
+        String[] lines = new String[rows.length + 1];
+        lines[0] = "item_handle,collection_handle";
+        System.arraycopy(rows, 0, lines, 1, rows.length);
+        File input = TestFiles.write("input", lines);
+        String rollbackFileName = TestFiles.fileName("rollback");
+        RollbackWriter rollback = RollbackWriter.create(rollbackFileName, HEADER.split(","));
+        CsvInput records = CsvInput.open(input.getPath(), TestFiles.UTF8);
+        try {
+            RowOperationFactory<MappingRow, MappingOperation.Prefetch> factory = new RowOperationFactory<MappingRow, MappingOperation.Prefetch>() {
+                @Override
+                public MappingRow parse(CSVRecord record, CsvInput input) {
+                    return MappingRow.parse(record, input);
+                }
+
+                @Override
+                public int partitionKey(MappingRow row) {
+                    return -1;
+                }
+
+                @Override
+                public RowOperation<MappingRow, MappingOperation.Prefetch> create() {
+                    return operation;
+                }
+
+                @Override
+                public RowOperation<MappingRow, MappingOperation.Prefetch> createWithOwnContext() {
+                    return operation;
+                }
+            };
+            new BatchRunner<MappingRow, MappingOperation.Prefetch>(factory, rollback, metrics(), new ItemIdSet(),
+                    new Checkpoint(rollbackFileName), 100, 100, 1, false).run(records);
+        } finally {
+            records.close();
+            rollback.close();
+        }
+        return TestFiles.lines(rollbackFileName);
+    }
+
+    /**
+     * Items h/N with id N, owned by c/1; collections c/N with id N; item 1
+     * is mapped into collection 10 as well.
+     */
+    private static class Repository implements HandleLookup {
+        @Override
+        public int resolveCollection(String collectionHandle) {
+            return Integer.parseInt(collectionHandle.substring(2));
+        }
+
+        @Override
+        public Map<String, ResolvedItem> resolveItems(Set<String> itemHandles) {
+            Map<String, ResolvedItem> items = new HashMap<String, ResolvedItem>();
+            for (String handle : itemHandles) {
+                items.put(handle, new ResolvedItem(handle, Integer.parseInt(handle.substring(2)), "c/1"));
+            }
+            return items;
+        }
+
+        @Override
+        public Set<Long> resolveMappings(Set<Integer> itemIds) {
+            Set<Long> mappings = new HashSet<Long>();
+            for (int id : itemIds) {
+                mappings.add(HandleResolver.mappingKey(id, 1));
+                if (id == 1) {
+                    mappings.add(HandleResolver.mappingKey(id, 10));
+                }
+            }
+            return mappings;
+        }
+
+        @Override
+        public Map<Integer, String> resolveOwners(Set<Integer> itemIds) {
+            Map<Integer, String> owners = new HashMap<Integer, String>();
+            for (int id : itemIds) {
+                owners.put(id, "c/1");
+            }
+            return owners;
+        }
+    }
+}
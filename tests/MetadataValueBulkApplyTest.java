@@ -0,0 +1,117 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.RollbackWriter;
+import uiuc.edu.dspace.app.launcher.TestFiles;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The --bulk apply against a local PostgreSQL database, given as a JDBC
+ * url in the launcher.test.jdbc system property, with the driver on the
+ * classpath; skipped without one. The metadatavalue table is a
+ * temporary one that hides any real table, and the transaction is
+ * rolled back at the end.
+ */
+public class MetadataValueBulkApplyTest {
+    private static final String URL = System.getProperty("launcher.test.jdbc");
+    private Connection connection;
+
+    @Before
+    public void connect() throws SQLException {
+        assumeTrue(URL != null);
+        connection = DriverManager.getConnection(URL);
+        connection.setAutoCommit(false);
+        execute("CREATE TEMPORARY TABLE metadatavalue (metadata_value_id integer PRIMARY KEY, resource_id integer, "
+                + "resource_type_id integer, metadata_field_id integer, text_value text) ON COMMIT DROP");
+        execute("INSERT INTO metadatavalue VALUES (1, 10, 2, 64, 'same'), (2, 10, 2, 64, 'old'), "
+                + "(3, 11, 2, 64, 'gone'), (4, 12, 2, 64, 'twice')");
+    }
+
+    @After
+    public void rollback() throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+            connection.close();
+        }
+    }
+
+    @Test
+    public void appliesTheRowsThatChangeSomethingAndLeavesTheCountsToTheCaller() throws Exception {
+        String rollbackFileName = TestFiles.fileName("rollback");
+        LauncherMetrics metrics = new LauncherMetrics(-1);
+
+        MetadataValueBulkApply.Result result = apply(rollbackFileName, metrics,
+                "1,same,10,64", "2,new,10,64", "3,,11,64", "4,first,12,64", "4,second,12,64", "9,nowhere,13,64");
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(10, 11, 12)), result.changedItemIds);
+        assertEquals(Arrays.asList("metadata_value_id,text_value,item_id,metadata_field_id",
+                "2,old,10,64", "\"\",gone,11,64", "4,twice,12,64"), TestFiles.lines(rollbackFileName));
+        // the last row of an id wins
+        assertEquals(Arrays.asList("1|same", "2|new", "4|second"), values());
+        assertEquals(0, metrics.get(LauncherMetrics.UPDATED));
+
+        result.addTo(metrics);
+        assertEquals(6, metrics.get(LauncherMetrics.ROWS));
+        assertEquals(2, metrics.get(LauncherMetrics.UPDATED));
+        assertEquals(1, metrics.get(LauncherMetrics.DELETED));
+        assertEquals(1, metrics.get(LauncherMetrics.SKIPPED));
+        assertEquals(1, metrics.get(LauncherMetrics.MISSING));
+    }
+
+    private MetadataValueBulkApply.Result apply(String rollbackFileName, LauncherMetrics metrics, String... lines)
+            throws Exception {
+        String[] file = new String[lines.length + 1];
+        file[0] = "metadata_value_id,text_value,item_id,metadata_field_id";
+        System.arraycopy(lines, 0, file, 1, lines.length);
+        File input = TestFiles.write("input", file);
+        RollbackWriter rollback = RollbackWriter.create(rollbackFileName,
+                "metadata_value_id", "text_value", "item_id", "metadata_field_id");
+        CsvInput records = CsvInput.open(input.getPath(), TestFiles.UTF8);
+        try {
+            return new MetadataValueBulkApply(connection, rollback, metrics).apply(new UpdateRow.Columns(records), records);
+        } finally {
+            records.close();
+            rollback.close();
+        }
+    }
+
+    private List<String> values() throws SQLException {
+        List<String> values = new ArrayList<String>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT metadata_value_id, text_value FROM metadatavalue ORDER BY 1");
+            while (result.next()) {
+                values.add(result.getInt(1) + "|" + result.getString(2));
+            }
+        } finally {
+            statement.close();
+        }
+        return values;
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.dspace.content.MetadataValue;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.Test;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.LauncherMetrics;
+import uiuc.edu.dspace.app.launcher.TestFiles;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The report of a MetadataValueUpdater dry run over stored values that
+ * are held in memory.
+ */
+public class MetadataValueDiffTest {
+    private static final String HEADER = "status,metadata_value_id,text_value,item_id,metadata_field_id,"
+            + "current_text_value,current_metadata_field_id,problem";
+
+    @Test
+    public void reportsInvalidRowsAndGoesOn() throws Exception {
+        Values store = new Values();
+        store.add(5, 1, 64, "old");
+        LauncherMetrics metrics = new LauncherMetrics(-1);
+
+        List<String> report = diff(store, metrics, "x5,new,1,64", ",new,,64", "5,new,1,64", "7");
+
+        assertEquals(Arrays.asList(HEADER,
+                "invalid,x5,new,1,64,,,\"For input string: \"\"x5\"\"\"",
+                "invalid,,new,,64,,,\"For input string: \"\"\"\"\"",
+                "would_update,5,new,1,64,old,64,",
+                "invalid,7,,,,,,Row 4 is missing its metadata_value_id or text_value cell"), report);
+        assertEquals(3, metrics.get(MetadataValueDiff.INVALID));
+        assertEquals(4, metrics.get(LauncherMetrics.ROWS));
+    }
+
+    @Test
+    public void classifiesEveryRowAgainstItsStoredValue() throws Exception {
+        Values store = new Values();
+        store.add(1, 10, 64, "same");
+        store.add(2, 10, 64, "old");
+        store.add(3, 10, 64, "moved");
+        store.add(4, 11, 64, "gone");
+        LauncherMetrics metrics = new LauncherMetrics(-1);
+
+        List<String> report = diff(store, metrics, "1,same,10,64", "2,new,10,64", "3,moved,10,65", "4,,11,64",
+                "9,nowhere,12,64", ",created,12,64");
+
+        // unchanged rows are only counted, so the report can be fed back as an input
+        assertEquals(Arrays.asList(HEADER,
+                "would_update,2,new,10,64,old,64,",
+                "would_update,3,moved,10,65,moved,64,",
+                "would_delete,4,,11,64,gone,64,",
+                "missing,9,nowhere,12,64,,,",
+                "would_create,,created,12,64,,,"), report);
+        assertEquals(1, metrics.get(MetadataValueDiff.UNCHANGED));
+        assertEquals(2, metrics.get(MetadataValueDiff.WOULD_UPDATE));
+        assertEquals(1, metrics.get(MetadataValueDiff.WOULD_DELETE));
+        assertEquals(1, metrics.get(MetadataValueDiff.MISSING));
+        assertEquals(1, metrics.get(MetadataValueDiff.WOULD_CREATE));
+        assertEquals(6, metrics.get(LauncherMetrics.ROWS));
+    }
+
+    @Test
+    public void comparesTheTextAsRead() throws Exception {
+        // stored decomposed, so the row's NFC form differs but the text as read matches
+        Values store = new Values();
+        store.add(1, 10, 64, "e\u0301");
+        LauncherMetrics metrics = new LauncherMetrics(-1);
+
+        assertEquals(Arrays.asList(HEADER), diff(store, metrics, "1,e\u0301,10,64"));
+        assertEquals(1, metrics.get(MetadataValueDiff.UNCHANGED));
+    }
+
+    static List<String> diff(MetadataValueStore store, LauncherMetrics metrics, String... lines) throws Exception {
+        String[] file = new String[lines.length + 1];
+        file[0] = "metadata_value_id,text_value,item_id,metadata_field_id";
+        System.arraycopy(lines, 0, file, 1, lines.length);
+        File input = TestFiles.write("input", file);
+        String reportFileName = TestFiles.fileName("report");
+        CsvInput records = CsvInput.open(input.getPath(), TestFiles.UTF8);
+        try {
+            new MetadataValueDiff(store, records, 2, metrics).write(reportFileName);
+        } finally {
+            records.close();
+        }
+        return TestFiles.lines(reportFileName);
+    }
+
+    // the stored values a dry run reads; it never writes
+    static class Values implements MetadataValueStore {
+        private static final List<String> COLUMNS = Arrays.asList("metadata_value_id", "resource_id", "resource_type_id",
+                "metadata_field_id", "text_value", "text_lang", "place", "authority", "confidence");
+        private final Map<Integer, MetadataValue> values = new HashMap<Integer, MetadataValue>();
+
+        void add(int id, int itemId, int fieldId, String text) {
+            TableRow row = new TableRow("metadatavalue", COLUMNS);
+            row.setColumn("metadata_value_id", id);
+            row.setColumn("resource_id", itemId);
+            row.setColumn("resource_type_id", 2);
+            row.setColumn("metadata_field_id", fieldId);
+            row.setColumn("text_value", text);
+            row.setColumn("place", 1);
+            row.setColumn("confidence", -1);
+            values.put(id, new MetadataValue(row));
+        }
+
+        @Override
+        public void load(List<Integer> ids, IntObjectMap<MetadataValue> into) {
+            for (int id : ids) {
+                if (values.containsKey(id)) {
+                    into.put(id, values.get(id));
+                }
+            }
+        }
+
+        @Override
+        public MetadataValue find(int id) {
+            return values.get(id);
+        }
+
+        @Override
+        public void create(MetadataValue mdv) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update(MetadataValue mdv) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(MetadataValue mdv) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void commit(Set<Integer> changedItemIds) {
+        }
+
+        @Override
+        public void rollback() {
+        }
+
+        @Override
+        public void close(boolean succeeded) {
+        }
+    }
+}
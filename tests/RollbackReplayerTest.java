@@ -0,0 +1,87 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.junit.Test;
+import uiuc.edu.dspace.app.batchItemMapper.BatchItemMapper;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * How RollbackReplayer collapses a rollback file into the input that
+ * restores everything to how it was before the run.
+ */
+public class RollbackReplayerTest {
+
+    @Test
+    public void keepsTheFirstRowOfEveryValueAndEveryDeletedValue() throws Exception {
+        File rollback = TestFiles.write("rollback", "metadata_value_id,text_value,item_id,metadata_field_id",
+                "5,original,1,64", "6,other,1,64", "5,first update,1,64", ",deleted once,2,64", ",deleted twice,2,64",
+                "6,\"with, comma\",1,64");
+
+        assertEquals(Arrays.asList("metadata_value_id,text_value,item_id,metadata_field_id",
+                "5,original,1,64", "6,other,1,64", "\"\",deleted once,2,64", "\"\",deleted twice,2,64"),
+                collapse(rollback, false));
+    }
+
+    @Test
+    public void leavesOutTheRowsAMarkerVoided() throws Exception {
+        // rows 2 and 3 are a failed commit's, voided by the marker at row 5 after another worker's row 4
+        File rollback = TestFiles.write("rollback", "metadata_value_id,text_value,item_id,metadata_field_id",
+                "5,original,1,64", "6,failed,1,64", "7,failed,1,64", "6,other worker,1,64",
+                RollbackWriter.VOID_MARKER + ",3,2", "7,after,1,64");
+
+        assertEquals(Arrays.asList("metadata_value_id,text_value,item_id,metadata_field_id",
+                "5,original,1,64", "6,other worker,1,64", "7,after,1,64"),
+                collapse(rollback, false));
+    }
+
+    @Test
+    public void leavesOutVoidedMappingRowsBeforeCheckingTheMode() throws Exception {
+        File rollback = TestFiles.write("rollback", "item_id,previous_owning_collection,mode,collection",
+                "h/1,c/1,map,c/2", "h/2,c/1,map,c/2", RollbackWriter.VOID_MARKER + ",1,1");
+
+        assertEquals(Arrays.asList("item_handle,collection_handle", "h/1,c/2"), collapse(rollback, true));
+    }
+
+    @Test
+    public void keepsTheFirstOwnerOfEveryMovedItem() throws Exception {
+        File rollback = TestFiles.write("rollback", "item_id,previous_owning_collection,mode,collection",
+                "h/1,c/1,move,c/2", "h/1,c/2,move,c/3", "h/2," + BatchItemMapper.NO_OWNING_COLLECTION + ",move,c/3");
+
+        assertEquals(Arrays.asList("item_handle,collection_handle", "h/1,c/1"), collapse(rollback, true));
+    }
+
+    @Test
+    public void keepsEveryItemAndCollectionOfAMap() throws Exception {
+        File rollback = TestFiles.write("rollback", "item_id,previous_owning_collection,mode,collection",
+                "h/1,c/1,map,c/2", "h/1,c/1,map,c/3", "h/1,c/1,map,c/2");
+
+        assertEquals(Arrays.asList("item_handle,collection_handle", "h/1,c/2", "h/1,c/3"), collapse(rollback, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAFileThatMixesModes() throws Exception {
+        File rollback = TestFiles.write("rollback", "item_id,previous_owning_collection,mode,collection",
+                "h/1,c/1,map,c/2", "h/1,c/1,unmap,c/2");
+        collapse(rollback, true);
+    }
+
+    private static List<String> collapse(File rollback, boolean mappings) throws Exception {
+        String replayFileName = TestFiles.fileName("replay");
+        RollbackReplayer replayer = new RollbackReplayer(rollback.getPath(), replayFileName);
+        CsvInput input = CsvInput.open(rollback.getPath(), TestFiles.UTF8);
+        try {
+            if (mappings) {
+                replayer.collapseMappings(input, replayer.voidedRecords());
+            } else {
+                replayer.collapseMetadataValues(input, replayer.voidedRecords());
+            }
+        } finally {
+            input.close();
+        }
+        return TestFiles.lines(replayFileName);
+    }
+}
@@ -0,0 +1,206 @@
+package uiuc.edu.dspace.app.launcher;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The rollback file and checkpoint of a run interrupted or failed at a
+ * commit: the rows of committed work are kept, the rows of work that was
+ * rolled back are cut off or voided.
+ */
+public class RollbackResumeTest {
+
+    @Test
+    public void resumeKeepsTheRowsOfABatchThatCommittedBeforeItsCheckpoint() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        interruptAfterSecondBatch(fileName);
+
+        Checkpoint checkpoint = new Checkpoint(fileName);
+        assertTrue(checkpoint.load());
+        assertTrue(checkpoint.hasPendingBatch());
+        checkpoint.resolvePendingBatch(true);
+        RollbackWriter.resume(fileName, checkpoint).close();
+
+        assertEquals(Arrays.asList("metadata_value_id", "1", "2"), TestFiles.lines(fileName));
+        assertEquals(2, checkpoint.getRecordNumber());
+        assertFalse(checkpoint.hasPendingBatch());
+    }
+
+    @Test
+    public void resumeDropsTheRowsOfABatchThatNeverCommitted() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        interruptAfterSecondBatch(fileName);
+
+        Checkpoint checkpoint = new Checkpoint(fileName);
+        assertTrue(checkpoint.load());
+        checkpoint.resolvePendingBatch(false);
+        RollbackWriter.resume(fileName, checkpoint).close();
+
+        assertEquals(Arrays.asList("metadata_value_id", "1"), TestFiles.lines(fileName));
+        assertEquals(1, checkpoint.getRecordNumber());
+    }
+
+    @Test
+    public void resumeKeepsTheRowsOfABatchItCantTellAbout() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        interruptAfterSecondBatch(fileName);
+
+        Checkpoint checkpoint = new Checkpoint(fileName);
+        assertTrue(checkpoint.load());
+        checkpoint.resolvePendingBatch(null);
+        RollbackWriter.resume(fileName, checkpoint).close();
+
+        // the batch is applied again from row 2
+        assertEquals(Arrays.asList("metadata_value_id", "1", "2"), TestFiles.lines(fileName));
+        assertEquals(1, checkpoint.getRecordNumber());
+    }
+
+    @Test
+    public void aFailedCommitCutsOffItsBatchsRows() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        RollbackWriter rollback = RollbackWriter.create(fileName, "metadata_value_id");
+        rollback.commit(rows("1"), new RollbackWriter.Commit() {
+            @Override
+            public void run() {
+            }
+        });
+        try {
+            rollback.commit(rows("2", "3"), new RollbackWriter.Commit() {
+                @Override
+                public void run() throws Exception {
+                    throw new IllegalStateException("commit failed");
+                }
+            });
+            fail("the commit's failure is passed on");
+        } catch (IllegalStateException expected) {
+        }
+        rollback.commit(rows("4"), new RollbackWriter.Commit() {
+            @Override
+            public void run() {
+            }
+        });
+        rollback.close();
+
+        assertEquals(Arrays.asList("metadata_value_id", "1", "4"), TestFiles.lines(fileName));
+    }
+
+    @Test
+    public void aFailedCommitAfterAnotherWorkersRowsIsVoided() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        final RollbackWriter rollback = RollbackWriter.create(fileName, "metadata_value_id");
+        final CountDownLatch failingAppended = new CountDownLatch(1);
+        final CountDownLatch otherAppended = new CountDownLatch(1);
+        final Exception[] failure = new Exception[1];
+        Thread failing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rollback.commit(rows("2", "3"), new RollbackWriter.Commit() {
+                        @Override
+                        public void run() throws Exception {
+                            failingAppended.countDown();
+                            otherAppended.await(10, TimeUnit.SECONDS);
+                            throw new IllegalStateException("commit failed");
+                        }
+                    });
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        failing.start();
+        failingAppended.await();
+        rollback.commit(rows("4"), new RollbackWriter.Commit() {
+            @Override
+            public void run() {
+                otherAppended.countDown();
+            }
+        });
+        failing.join();
+        rollback.close();
+
+        assertTrue(failure[0] instanceof IllegalStateException);
+        assertEquals(Arrays.asList("metadata_value_id", "2", "3", "4", "\"" + RollbackWriter.VOID_MARKER + "\",3,2"),
+                TestFiles.lines(fileName));
+        BitSet voided = new RollbackReplayer(fileName, TestFiles.fileName("replay")).voidedRecords();
+        assertEquals("{1, 2, 4}", voided.toString());
+    }
+
+    @Test
+    public void commitsOfOtherWorkersRunAtTheSameTime() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        final RollbackWriter rollback = RollbackWriter.create(fileName, "metadata_value_id");
+        // each commit waits for the other to start, which it can only do if neither holds the writer
+        final CyclicBarrier bothCommitting = new CyclicBarrier(2);
+        final RollbackWriter.Commit commit = new RollbackWriter.Commit() {
+            @Override
+            public void run() throws Exception {
+                bothCommitting.await(10, TimeUnit.SECONDS);
+            }
+        };
+        final Exception[] failure = new Exception[1];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rollback.commit(rows("1"), commit);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        other.start();
+        rollback.commit(rows("2"), commit);
+        other.join();
+        rollback.close();
+
+        assertNull(failure[0]);
+        assertEquals(3, TestFiles.lines(fileName).size());
+    }
+
+    @Test
+    public void deleteRemovesAnEarlierRunsCheckpoint() throws Exception {
+        String fileName = TestFiles.fileName("rollback");
+        new Checkpoint(fileName).markComplete();
+
+        new Checkpoint(fileName).delete();
+
+        assertFalse(new Checkpoint(fileName).load());
+    }
+
+    // one committed batch of row 1, then batch of row 2 synced and begun, as a crash before its checkpoint leaves them
+    private static void interruptAfterSecondBatch(String fileName) throws Exception {
+        RollbackWriter rollback = RollbackWriter.create(fileName, "metadata_value_id");
+        Checkpoint checkpoint = new Checkpoint(fileName);
+        rollback.write(rows("1"));
+        rollback.sync();
+        checkpoint.begin(1, 10, "");
+        checkpoint.save(1, 10);
+        rollback.write(rows("2"));
+        rollback.sync();
+        checkpoint.begin(2, 20, "");
+        rollback.close();
+    }
+
+    private static List<Object[]> rows(String... ids) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (String id : ids) {
+            rows.add(new Object[]{id});
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
@@ -0,0 +1,46 @@
+package uiuc.edu.dspace.app.launcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Temporary files for the tests, removed when the JVM exits.
+ */
+public class TestFiles {
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // a file with the given lines, each ended by a newline
+    public static File write(String prefix, String... lines) throws IOException {
+        File file = File.createTempFile(prefix, ".csv");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    // the name of a file that doesn't exist yet, with the checkpoint next to it removed on exit too
+    public static String fileName(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".csv");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + ".checkpoint").deleteOnExit();
+        return file.getPath();
+    }
+
+    public static List<String> lines(String fileName) throws IOException {
+        return Files.readAllLines(new File(fileName).toPath(), UTF8);
+    }
+}
@@ -0,0 +1,105 @@
+package uiuc.edu.dspace.app.metadatavalueimport;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+import uiuc.edu.dspace.app.launcher.CsvInput;
+import uiuc.edu.dspace.app.launcher.TestFiles;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * How a MetadataValueUpdater row's cells are parsed.
+ */
+public class UpdateRowTest {
+
+    @Test
+    public void parsesIdsUpToTheLargestInt() throws Exception {
+        List<UpdateRow> rows = rows("1,a,7,64", "1234567890,a,7,64", "2147483647,a,7,64");
+        assertEquals(1, rows.get(0).metadataValueId());
+        assertEquals(1234567890, rows.get(1).metadataValueId());
+        assertEquals(Integer.MAX_VALUE, rows.get(2).metadataValueId());
+        assertEquals(7, rows.get(2).itemId());
+        assertEquals(64, rows.get(2).fieldId());
+    }
+
+    @Test
+    public void acceptsALeadingPlusSign() throws Exception {
+        List<UpdateRow> rows = rows("+5,a,+7,64", "+2147483647,a,7,64");
+        assertEquals(5, rows.get(0).metadataValueId());
+        assertEquals(7, rows.get(0).itemId());
+        assertEquals(Integer.MAX_VALUE, rows.get(1).metadataValueId());
+        assertMalformed(rows("+,a,7,64", "++5,a,7,64", "+-5,a,7,64"));
+    }
+
+    @Test
+    public void rejectsIdsThatOverflow() throws Exception {
+        assertMalformed(rows("2147483648,a,7,64", "99999999999,a,7,64", "+2147483648,a,7,64"));
+    }
+
+    @Test
+    public void rejectsDigitsOutsideAscii() throws Exception {
+        // arabic-indic and fullwidth digits, a minus sign and a trailing space
+        assertMalformed(rows("\u0661\u0662,a,7,64", "\uff11\uff12,a,7,64", "-1,a,7,64", "1 ,a,7,64"));
+    }
+
+    @Test
+    public void readsAnEmptyIdAsANewValue() throws Exception {
+        UpdateRow row = rows(",a,7,64").get(0);
+        assertTrue(row.isNew());
+        assertTrue(row.hasItemId());
+    }
+
+    @Test
+    public void keepsTheTextAsReadAndItsNfcForm() throws Exception {
+        UpdateRow row = rows("1,e\u0301,7,64").get(0);
+        assertEquals("e\u0301", row.rawText);
+        assertEquals("\u00e9", row.text);
+    }
+
+    @Test
+    public void aShortRowFailsOnlyWhenChecked() throws Exception {
+        UpdateRow row = rows("1").get(0);
+        assertFalse(row.hasItemId());
+        try {
+            row.checkComplete();
+            fail("a row without its text_value cell is incomplete");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertMalformed(List<UpdateRow> rows) {
+        for (UpdateRow row : rows) {
+            assertFalse(row.isNew());
+            try {
+                row.metadataValueId();
+                fail(row.metadataValueIdText + " is not an id");
+            } catch (NumberFormatException expected) {
+            }
+        }
+    }
+
+    private static List<UpdateRow> rows(String... lines) throws Exception {
+        String[] file = new String[lines.length + 1];
+        file[0] = "metadata_value_id,text_value,item_id,metadata_field_id";
+        System.arraycopy(lines, 0, file, 1, lines.length);
+        File input = TestFiles.write("input", file);
+        List<UpdateRow> rows = new ArrayList<UpdateRow>();
+        CsvInput records = CsvInput.open(input.getPath(), TestFiles.UTF8);
+        try {
+            UpdateRow.Columns columns = new UpdateRow.Columns(records);
+            for (CSVRecord record : records) {
+                rows.add(columns.compile(record));
+            }
+        } finally {
+            records.close();
+        }
+        return rows;
+    }
+}